@@ -0,0 +1,85 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.benchmark;
+
+import de.root1.spf.Archive;
+import de.root1.spf.PluginInterface;
+import de.root1.spf.utils.ServiceFinder;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of checking a single archive with 5 plugins, 50 other classes and 20
+ * resources before deploy
+ *
+ * @author ACHR
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchiveScanBenchmark {
+
+    private File folder;
+    private File archive;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("spf-bench").toFile();
+        PluginJarGenerator generator = new PluginJarGenerator();
+        generator.setPluginsPerArchive(5);
+        generator.setHelperClassesPerArchive(50);
+        generator.setResourcesPerArchive(20);
+        archive = generator.generate(folder).get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        PluginJarGenerator.delete(folder);
+    }
+
+    @Benchmark
+    public boolean accepted() {
+        return Archive.accepted(archive);
+    }
+
+    @Benchmark
+    public List<String> serviceFinderScan() throws IOException {
+        return new ServiceFinder(getClass().getClassLoader(), archive).getServiceClassNames(PluginInterface.class.getName());
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.benchmark;
+
+import de.root1.spf.ArchiveClassLoader;
+import de.root1.spf.ClassMissException;
+import de.root1.spf.DelegatingArchiveClassLoader;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class lookups of an {@link ArchiveClassLoader}, as done by plugin code.
+ * Run with <code>-prof gc</code> to see the allocations per lookup.
+ *
+ * @author ACHR
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassMissBenchmark {
+
+    /**
+     * see {@link ClassMissException#setStackless(boolean)}
+     */
+    @Param({"false", "true"})
+    public boolean stacklessMisses;
+
+    private File folder;
+    private DelegatingArchiveClassLoader delegating;
+    private final List<ArchiveClassLoader> loaders = new ArrayList<>();
+    private ArchiveClassLoader first;
+    private String ownPluginClass;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("spf-bench").toFile();
+        ClassMissException.setStackless(stacklessMisses);
+        delegating = new DelegatingArchiveClassLoader(getClass().getClassLoader());
+        PluginJarGenerator generator = new PluginJarGenerator();
+        generator.setArchiveCount(10);
+        for (File archive : generator.generate(folder)) {
+            ArchiveClassLoader loader = new ArchiveClassLoader(archive, delegating);
+            delegating.addArchiveClassLoader(loader);
+            loaders.add(loader);
+        }
+        first = loaders.get(0);
+        ownPluginClass = PluginJarGenerator.getPluginClassName(1, 1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ClassMissException.setStackless(false);
+        for (ArchiveClassLoader loader : loaders) {
+            delegating.removeArchiveClassLoader(loader);
+            loader.close();
+        }
+        PluginJarGenerator.delete(folder);
+    }
+
+    /**
+     * Class of the archive itself, already loaded
+     */
+    @Benchmark
+    public Class<?> loadOwnClass() throws ClassNotFoundException {
+        return first.loadClass(ownPluginClass);
+    }
+
+    /**
+     * Missing class in a package of another archive. The archive does not
+     * have to be asked.
+     */
+    @Benchmark
+    public Object missInForeignPackage() {
+        try {
+            return first.loadClass("synth.p2.DoesNotExist");
+        } catch (ClassNotFoundException ex) {
+            return ex;
+        }
+    }
+
+    /**
+     * Missing class in a package of the archive itself
+     */
+    @Benchmark
+    public Object missInOwnPackage() {
+        try {
+            return first.loadClass("synth.p1.DoesNotExist");
+        } catch (ClassNotFoundException ex) {
+            return ex;
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.benchmark;
+
+import de.root1.spf.ArchiveClassLoader;
+import de.root1.spf.DelegatingArchiveClassLoader;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class and resource lookups via the {@link DelegatingArchiveClassLoader}
+ * with a number of registered archives.
+ *
+ * @author ACHR
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassResolutionBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int archives;
+
+    private File folder;
+    private DelegatingArchiveClassLoader delegating;
+    private final List<ArchiveClassLoader> loaders = new ArrayList<>();
+    private String lastPluginClass;
+    private String lastResource;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("spf-bench").toFile();
+        delegating = new DelegatingArchiveClassLoader(getClass().getClassLoader());
+        PluginJarGenerator generator = new PluginJarGenerator();
+        generator.setArchiveCount(archives);
+        generator.setResourcesPerArchive(1);
+        for (File archive : generator.generate(folder)) {
+            ArchiveClassLoader loader = new ArchiveClassLoader(archive, delegating);
+            delegating.addArchiveClassLoader(loader);
+            loaders.add(loader);
+        }
+        lastPluginClass = PluginJarGenerator.getPluginClassName(archives, 1);
+        lastResource = PluginJarGenerator.getPackageName(archives).replace('.', '/') + "/resource_1.txt";
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (ArchiveClassLoader loader : loaders) {
+            delegating.removeArchiveClassLoader(loader);
+            loader.close();
+        }
+        PluginJarGenerator.delete(folder);
+    }
+
+    /**
+     * Class of the last registered archive
+     */
+    @Benchmark
+    public Class<?> findClassHit() throws ClassNotFoundException {
+        return delegating.loadClass(lastPluginClass);
+    }
+
+    /**
+     * Class in a package of a registered archive that does not exist
+     */
+    @Benchmark
+    public Object findClassMissInPluginPackage() {
+        try {
+            return delegating.loadClass("synth.p1.DoesNotExist");
+        } catch (ClassNotFoundException ex) {
+            return ex;
+        }
+    }
+
+    /**
+     * Class in a package no archive knows
+     */
+    @Benchmark
+    public Object findClassMissUnknownPackage() {
+        try {
+            return delegating.loadClass("does.not.Exist");
+        } catch (ClassNotFoundException ex) {
+            return ex;
+        }
+    }
+
+    /**
+     * Resource only the last registered archive provides
+     */
+    @Benchmark
+    public URL getResourceSingleArchive() {
+        return delegating.getResource(lastResource);
+    }
+
+    /**
+     * Resource every archive provides
+     */
+    @Benchmark
+    public int getResourcesFanOut() throws IOException {
+        Enumeration<URL> resources = delegating.getResources(PluginJarGenerator.SHARED_RESOURCE);
+        int count = 0;
+        while (resources.hasMoreElements()) {
+            resources.nextElement();
+            count++;
+        }
+        return count;
+    }
+
+}
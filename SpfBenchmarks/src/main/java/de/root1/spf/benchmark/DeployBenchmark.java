@@ -0,0 +1,98 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.benchmark;
+
+import de.root1.spf.SimplePluginFramework;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full deploy cycle: initial deployment of a folder of chained plugin
+ * archives and undeploy on shutdown.
+ *
+ * @author ACHR
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeployBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int archives;
+
+    /**
+     * false: the archive index of the previous run is removed before each
+     * cycle, so that all archives are inspected and hashed again
+     */
+    @Param({"false", "true"})
+    public boolean warmIndex;
+
+    private File folder;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("spf-bench").toFile();
+        PluginJarGenerator generator = new PluginJarGenerator();
+        generator.setArchiveCount(archives);
+        generator.setDependencies(true);
+        generator.generate(folder);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareCycle() {
+        if (!warmIndex) {
+            PluginJarGenerator.delete(new File(folder, "tmp"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        PluginJarGenerator.delete(folder);
+    }
+
+    @Benchmark
+    public int deployCycle() throws InterruptedException {
+        SimplePluginFramework spf = new SimplePluginFramework(folder, 60000);
+        spf.startLoading(true);
+        int plugins = spf.getPluginContainerList().size();
+        spf.shutdown();
+        return plugins;
+    }
+
+}
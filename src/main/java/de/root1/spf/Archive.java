@@ -19,18 +19,18 @@
  */
 package de.root1.spf;
 
+import de.root1.spf.metrics.Metrics;
+import de.root1.spf.metrics.Timer;
 import de.root1.spf.utils.Utils;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.HashSet;
-import de.root1.spf.utils.ServiceFinder;
 
 /**
  *
@@ -43,8 +43,6 @@ public class Archive {
      */
     private final static Logger LOG = LoggerFactory.getLogger(Archive.class);
 
-    private static final String PLUGIN_ARCHIVE_EXTENSION = "JAR";
-
     private File file;
     private long lastModified;
     private long length;
@@ -52,24 +50,45 @@ public class Archive {
     private Throwable lastDeployError;
 
     private File tmpDeployFile;
+    private String contentHash;
+    private final ArchiveInfo info;
 
     private final DelegatingArchiveClassLoader delegatingModuleClassLoader = Deployer.getDelegatingPluginClassLoader();
     private ArchiveClassLoader archiveClassLoader;
     private final Deployer deployer;
-    
-    public static Set<Class> loadedPluginClasses = new HashSet<>();
+
+    /**
+     * The deployed version of this archive that this one replaces once it
+     * has been loaded, <code>null</code> if none
+     */
+    private Archive replacedArchive;
 
     public Archive(Deployer deployer, File file) {
+        this(deployer, file, null);
+    }
+
+    /**
+     * Creates a new version of a deployed archive. It's loaded next to the
+     * deployed version without being visible to other archives, until it
+     * replaces the deployed version.
+     *
+     * @param deployer the deployer
+     * @param file the archive file
+     * @param replacedArchive the deployed version, <code>null</code> if none
+     */
+    Archive(Deployer deployer, File file, Archive replacedArchive) {
         
         this.deployer = deployer;
-        
-        if (!accepted(file)) {
+        this.replacedArchive = replacedArchive;
+
+        info = deployer.getInspector().inspect(file);
+        if (info == null || !info.isAccepted()) {
             throw new IllegalArgumentException("File is invalid");
         }
 
         this.file = file;
-        lastModified = file.lastModified();
-        length = file.length();
+        lastModified = info.getLastModified();
+        length = info.getLength();
 
     }
 
@@ -89,16 +108,19 @@ public class Archive {
             return pluginContainerList;
         }
 
-        // make temporary file that that is used to load the plugin so that the
-        // original file can be deleted to trigger undeploy
-        try {
-            tmpDeployFile = File.createTempFile("ARCHIVE_" + file.getName() + "_", ".deploytmp.jar", deployer.getPluginTempPath());
-            tmpDeployFile.deleteOnExit();
-            LOG.debug("Copying [{}] to deploy temp [{}]", file, tmpDeployFile);
-            Utils.copyFile(file, tmpDeployFile);
-        } catch (IOException ex) {
-            pluginContainerList.clear();
-            throw new ModuleInstantiationException("Can't create temp file for deployment due to IOException. Error was: " + ex.getMessage());
+        // use a staged copy of the archive, so that the original file can be
+        // deleted to trigger undeploy. The copy is kept for retries.
+        Metrics metrics = getFramework().getMetrics();
+        if (tmpDeployFile == null) {
+            Timer stageTime = metrics.timer("archive.stage");
+            long stageStart = stageTime.start();
+            try {
+                tmpDeployFile = deployer.getStaging().stage(file, getContentHash());
+                stageTime.stop(stageStart);
+            } catch (IOException ex) {
+                pluginContainerList.clear();
+                throw new ModuleInstantiationException("Can't create temp file for deployment due to IOException. Error was: " + ex.getMessage());
+            }
         }
 
         LOG.trace("Loading archive via file [{}]", tmpDeployFile.getName());
@@ -106,19 +128,45 @@ public class Archive {
         // Load the class that was specified
 
         String currentProcessedClass = "<not yet started to process>";
+        Timer loadTime = metrics.timer("archive.load");
+        long loadStart = loadTime.start();
         try {
 
-            archiveClassLoader = new ArchiveClassLoader(tmpDeployFile, delegatingModuleClassLoader);
+            archiveClassLoader = new ArchiveClassLoader(tmpDeployFile, delegatingModuleClassLoader, info.getPackageNames());
+            archiveClassLoader.setMetrics(metrics);
 
             LOG.debug("ArchiveClassLoader for archive [{}]: {}", file.getName(), archiveClassLoader);
-            delegatingModuleClassLoader.addArchiveClassLoader(archiveClassLoader);
+            boolean lazy = getFramework().isLazyActivation();
+            boolean preload = getFramework().isPreloadClasses() && !lazy;
+            if (preload) {
+                try {
+                    archiveClassLoader.preload();
+                } catch (IOException ex) {
+                    LOG.warn("Cannot preload classes of archive [{}], loading them on demand: {}", file.getName(), ex.getMessage());
+                }
+            }
+            if (replacedArchive != null) {
+                // registered when replacing the deployed version
+                archiveClassLoader.setStandby(true);
+            } else {
+                delegatingModuleClassLoader.addArchiveClassLoader(archiveClassLoader);
+            }
 
-            ServiceFinder finder = new ServiceFinder(archiveClassLoader, file);
-            List<Class> serviceImplementations = finder.getServiceImplementations(de.root1.spf.PluginInterface.class);
-            for (Class pluginImplClass : serviceImplementations) {
-                pluginContainerList.add(new PluginContainer(this, (PluginInterface) pluginImplClass.getDeclaredConstructor().newInstance()));
-                LOG.info("Added: {}", pluginImplClass);
+            for (String pluginClassName : info.getPluginClassNames()) {
+                currentProcessedClass = pluginClassName;
+                if (lazy) {
+                    pluginContainerList.add(new PluginContainer(this, pluginClassName));
+                    LOG.info("Added for activation on first use: {}", pluginClassName);
+                } else {
+                    PluginInterface plugin = createPlugin(pluginClassName);
+                    pluginContainerList.add(new PluginContainer(this, plugin));
+                    LOG.info("Added: {}", plugin.getClass());
+                }
+            }
+            if (preload) {
+                archiveClassLoader.defineAll();
             }
+            loadTime.stop(loadStart);
             
             return pluginContainerList;
 
@@ -127,28 +175,116 @@ public class Archive {
             if (LOG.isTraceEnabled()) {
                 LOG.error("Can't load plugin class [" + currentProcessedClass + "] due to NoClassDefFoundError: " + ex.getMessage(), ex);
             }
-            tmpDeployFile.delete();
             throw new ModuleInstantiationException("Can't load plugin class [" + currentProcessedClass + "] due to NoClassDefFoundError: " + ex.getMessage(), ex);
         } catch (MalformedURLException ex) {
             pluginContainerList.clear();
-            tmpDeployFile.delete();
             throw new ModuleInstantiationException("Can't load plugin class [" + currentProcessedClass + "] due to MalformedURLException: " + ex.getMessage(), ex);
         } catch (Exception ex) {
             pluginContainerList.clear();
-            tmpDeployFile.delete();
             throw new ModuleInstantiationException("Can't load plugin class [" + currentProcessedClass + "] due to unknown exception: " + ex.getMessage(), ex);
         }
     }
 
     /**
-     * TODO document me
+     * Loads the given plugin class with the archive's class loader and
+     * creates an instance.
+     *
+     * @param pluginClassName name of the plugin implementation class
+     * @return the new plugin instance
+     * @throws ReflectiveOperationException if the class can't be loaded or
+     * instantiated
+     * @throws ClassCastException if the class does not implement
+     * {@link PluginInterface}
+     */
+    PluginInterface createPlugin(String pluginClassName) throws ReflectiveOperationException {
+        Class<?> pluginImplClass = archiveClassLoader.loadClass(pluginClassName);
+        if (!PluginInterface.class.isAssignableFrom(pluginImplClass)) {
+            throw new ClassCastException("Class not of type: " + PluginInterface.class.getName());
+        }
+        return (PluginInterface) pluginImplClass.getDeclaredConstructor().newInstance();
+    }
+
+    Archive getReplacedArchive() {
+        return replacedArchive;
+    }
+
+    /**
+     * Makes this archive visible to other archives in place of the archive
+     * it replaces
+     */
+    void replaced() {
+        delegatingModuleClassLoader.replaceArchiveClassLoader(replacedArchive.archiveClassLoader, archiveClassLoader);
+        replacedArchive = null;
+    }
+
+    SimplePluginFramework getFramework() {
+        return deployer.getFramework();
+    }
+
+    /**
+     * Returns the content hash of the archive file. Calculated on first call
+     * only.
+     *
+     * @return hex encoded SHA-256 hash of the archive file
+     * @throws IOException if the archive can't be read
+     */
+    public synchronized String getContentHash() throws IOException {
+        if (contentHash == null) {
+            contentHash = deployer.getStaging().getContentHash(file);
+        }
+        return contentHash;
+    }
+
+    /**
+     * @return the staged copy the archive is loaded from, <code>null</code>
+     * if not loaded yet
+     */
+    File getStagedFile() {
+        return tmpDeployFile;
+    }
+
+    /**
+     * Returns the packages this archive exports to and imports from other
+     * archives.
+     *
+     * @return the dependencies of this archive
+     */
+    public ArchiveDependencies getDependencies() {
+        return info.getDependencies();
+    }
+
+    /**
+     * Returns what has been read from the archive file without loading it:
+     * plugin implementation classes, manifest attributes and packages.
+     *
+     * @return the archive info
+     */
+    public ArchiveInfo getInfo() {
+        return info;
+    }
+
+    /**
+     * Called when the archive has been undeployed or failed to load. Removes
+     * and closes the archive's classloader and hands it over to the leak
+     * detection.
      */
     public void undeployed() {
+        if (archiveClassLoader == null) {
+            return;
+        }
         delegatingModuleClassLoader.removeArchiveClassLoader(archiveClassLoader);
+        try {
+            archiveClassLoader.close();
+        } catch (IOException ex) {
+            LOG.warn("Cannot close classloader of archive [{}]: {}", file.getName(), ex.getMessage());
+        }
+        deployer.getFramework().getLeakDetector().retire(archiveClassLoader);
+        archiveClassLoader = null;
     }
 
     /**
-     * Utility method to check if an archive would be accepted
+     * Utility method to check if an archive would be accepted. Only the
+     * service file and the class files are read, no class is loaded.
      *
      * @param file the file to test
      * @return true, if accepted, false if not
@@ -156,37 +292,34 @@ public class Archive {
     public static boolean accepted(File file) {
         LOG.debug("Checking file: {}", file.getName());
 
-        int pluginCount = 0;
-        // get plugin count from archive
+        ArchiveInfo info;
         try {
-            ArchiveClassLoader acl = new ArchiveClassLoader(file, Deployer.getDelegatingPluginClassLoader());
-            ServiceFinder finder = new ServiceFinder(acl, file);
-            List<Class> serviceImplementations = finder.getServiceImplementations(de.root1.spf.PluginInterface.class);
-            for (Class clazz : serviceImplementations) {
-                LOG.info("detected: {}", clazz);
-                pluginCount++;
-            }
-        } catch (MalformedURLException ex) {
-            LOG.warn("Error while checking file acceptance: File path is not okay. ["+file.getAbsolutePath()+"].", ex);
-            return false;
-        } catch (java.util.ServiceConfigurationError err) {
-            LOG.warn("Error while checking file acceptance: Prolem with plugin service config. ["+file.getAbsolutePath()+"].", err);
-            return false;
+            info = ArchiveInspector.read(file);
         } catch (IOException ex) {
             LOG.warn("Error while checking file acceptance: IO error on ["+file.getAbsolutePath()+"].", ex);
             return false;
-        } catch (ClassNotFoundException ex) {
-            LOG.warn("Error while checking file acceptance. Classloading issue. ["+file.getAbsolutePath()+"].", ex);
-            return false;
         }
+        return accepted(info);
+    }
 
-        boolean extensionValid = file.getName().toUpperCase().endsWith("."+PLUGIN_ARCHIVE_EXTENSION);
-
-        if (pluginCount > 0 && extensionValid) {
-            return true;
+    /**
+     * Checks if an archive would be accepted, based on the already read
+     * archive info
+     *
+     * @param info the archive info
+     * @return true, if accepted, false if not
+     */
+    static boolean accepted(ArchiveInfo info) {
+        for (String pluginClassName : info.getPluginClassNames()) {
+            LOG.info("detected: {}", pluginClassName);
         }
-
-        return false;
+        if (!info.getMissingPluginClasses().isEmpty()) {
+            LOG.info("Plugin classes {} are not contained in [{}], expecting them to be provided by another archive.", info.getMissingPluginClasses(), info.getFileName());
+        }
+        if (!info.getInvalidPluginClasses().isEmpty()) {
+            LOG.warn("Error while checking file acceptance. Plugin classes {} in [{}] don't implement {}.", info.getInvalidPluginClasses(), info.getFileName(), PluginInterface.class.getName());
+        }
+        return info.isAccepted();
     }
 
     /**
@@ -285,6 +418,25 @@ public class Archive {
         return file.getName();
     }
 
+    /**
+     * Returns the content of a resource of this archive, mapped from the
+     * staged archive file if it is stored uncompressed. See
+     * {@link ArchiveClassLoader#getResourceBuffer(String)}.
+     *
+     * @param name the resource name
+     * @return a read-only buffer with the content, or <code>null</code> if
+     * this archive does not contain the resource
+     * @throws IOException if the archive can't be read
+     * @throws IllegalStateException if the archive is not loaded
+     */
+    public ByteBuffer getResourceBuffer(String name) throws IOException {
+        ArchiveClassLoader classLoader = archiveClassLoader;
+        if (classLoader == null) {
+            throw new IllegalStateException("Archive [" + getName() + "] is not loaded");
+        }
+        return classLoader.getResourceBuffer(name);
+    }
+
     /**
      * @return the lastDeployError
      */
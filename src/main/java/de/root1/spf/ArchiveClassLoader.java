@@ -19,10 +19,41 @@
  */
 package de.root1.spf;
 
+import de.root1.spf.metrics.Counter;
+import de.root1.spf.metrics.Metrics;
+import de.root1.spf.metrics.Timer;
+import de.root1.spf.utils.ClassFileInfo;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
@@ -33,19 +64,90 @@ import org.slf4j.LoggerFactory;
  * @author achristian
  */
 public class ArchiveClassLoader extends URLClassLoader {
+
+    static {
+        // archives are loaded in parallel by the deployer
+        registerAsParallelCapable();
+    }
     
     private final Logger log = LoggerFactory.getLogger(getClass());
     
     private String name;
-    private final static Pattern archiveTmpFilePattern = Pattern.compile("ARCHIVE_.+_\\d+?\\.deploytmp\\.jar");
+    private static final int PRELOAD_BUFFER_SIZE = 64 * 1024;
+    private final static Pattern archiveTmpFilePattern = Pattern.compile("ARCHIVE_.+_[0-9a-f]+?\\.deploytmp\\.jar");
     private final File f;
+
+    /**
+     * Computed once, used in log messages and misses of each lookup
+     */
+    private final String archivePath;
+    private final String description;
+    private final DelegatingArchiveClassLoader delegatingParent;
+    private volatile Set<String> packageNames;
+
+    /**
+     * Names of all entries except class files, see {@link #getResourceNames()}
+     */
+    private Set<String> resourceNames;
+    private boolean resourceNamesRead;
+
+    /**
+     * Set while this archive is loaded next to an older version of itself.
+     * Its own classes are then loaded from this archive instead of the
+     * registered archives.
+     */
+    private volatile boolean standby;
+
+    /**
+     * Number of the classes defined by this classloader
+     */
+    private final AtomicInteger definedClassCount = new AtomicInteger();
+
+    /**
+     * Metrics of defined classes, disabled until set by the archive
+     */
+    private static final Metrics NO_METRICS = new Metrics();
+    private Counter classesDefined = NO_METRICS.counter("classloader.classes.defined");
+    private Timer defineTime = NO_METRICS.timer("classloader.define");
+
+    /**
+     * Class files read in advance by {@link #preload()}, by class name. An
+     * entry is removed when its class is defined. <code>null</code> if not
+     * preloaded.
+     */
+    private volatile Map<String, byte[]> preloadedClasses;
+
+    /**
+     * Entries of the archive, read on first use, and the buffers mapped so
+     * far by {@link #getResourceBuffer(String)}
+     */
+    private volatile ArchiveEntryIndex entryIndex;
+    private final Map<String, ByteBuffer> mappedResources = new ConcurrentHashMap<>();
+    private Manifest preloadedManifest;
+    private URL archiveUrl;
     
+    /**
+     * Creates a classloader for an archive whose packages are already known
+     *
+     * @param f the archive
+     * @param parent the parent classloader
+     * @param packageNames names of the packages that contain classes in the
+     * archive
+     * @throws MalformedURLException if the archive path is not valid
+     */
+    ArchiveClassLoader(File f, ClassLoader parent, Set<String> packageNames) throws MalformedURLException {
+        this(f, parent);
+        this.packageNames = packageNames;
+    }
+
     public ArchiveClassLoader(File f, ClassLoader parent) throws MalformedURLException {
         //super(new URL[]{f.toURI().toURL()}, parent);
         super(new URL[]{ new URL("jar:file:" + f.getAbsolutePath() + "!/") }, parent);
-        log.debug("JarURL: [{}]", "jar:file:" + f.getAbsolutePath() + "!/");
-        log.debug("ArchiveClassLoader for {} has parent {}", f.getAbsolutePath(), parent.toString());
         this.f = f;
+        this.archivePath = f.getAbsolutePath();
+        log.debug("JarURL: [jar:file:{}!/]", archivePath);
+        log.debug("ArchiveClassLoader for {} has parent {}", archivePath, parent);
+        this.delegatingParent = parent instanceof DelegatingArchiveClassLoader ? (DelegatingArchiveClassLoader) parent : null;
         
         name = f.getName();
         
@@ -53,36 +155,366 @@ public class ArchiveClassLoader extends URLClassLoader {
         if (!m.matches()) {
             name = f.toString();
         }
+        description = "ArchiveClassLoader{" + "archive=" + name + '}';
+    }
+
+    /**
+     * Sets the metrics defined classes are recorded in. Must be called
+     * before any class is loaded.
+     *
+     * @param metrics the metrics
+     */
+    void setMetrics(Metrics metrics) {
+        classesDefined = metrics.counter("classloader.classes.defined");
+        defineTime = metrics.timer("classloader.define");
     }
 
     @Override
     public String toString() {
-        return "ArchiveClassLoader{" + "archive=" + name + '}';
+        return description;
     }
 
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
-        log.debug("Trying to find [{}] from {}", name, f.getAbsolutePath());
+        log.debug("Trying to find [{}] from {}", name, archivePath);
+        long defineStart = defineTime.start();
+        Map<String, byte[]> preloaded = preloadedClasses;
+        if (preloaded != null) {
+            byte[] classFile = preloaded.remove(name);
+            if (classFile != null) {
+                Class<?> clazz = definePreloadedClass(name, classFile);
+                defineTime.stop(defineStart);
+                classesDefined.increment();
+                definedClassCount.incrementAndGet();
+                return clazz;
+            }
+        }
+        Set<String> packages = packageNames;
+        if (packages != null && !packages.contains(ClassFileInfo.getPackageName(name))) {
+            // no need to ask the jar
+            throw new ClassMissException(name, archivePath, null);
+        }
         try {
             Class<?> clazz = super.findClass(name);
-            log.debug("Found [{}] in {}", name, f.getAbsolutePath());
+            log.debug("Found [{}] in {}", name, archivePath);
+            defineTime.stop(defineStart);
+            classesDefined.increment();
+            definedClassCount.incrementAndGet();
             return clazz;
         } catch (ClassNotFoundException ex) {
-            throw new ClassNotFoundException("Class "+name+" not found in "+f.getAbsolutePath(), ex);
+            throw new ClassMissException(name, archivePath, ex);
         }
     }
 
+    /**
+     * Loads the class via the parent of the delegating classloader first,
+     * then from the registered plugin archives (in registration order) and
+     * finally from this archive. In standby, classes of this archive are
+     * loaded before asking the registered plugin archives.
+     * <p>
+     * The delegating classloader is not asked via
+     * {@link ClassLoader#loadClass(String)}, as this would lock the class
+     * name on the delegating classloader while we already hold the lock on
+     * this classloader, which can deadlock with other archives that are
+     * loaded in parallel.
+     */
     @Override
-    public Class<?> loadClass(String name) throws ClassNotFoundException {
-        log.debug("Trying to load [{}] from {}", name, f.getAbsolutePath());
-        try {
-            Class<?> clazz = super.loadClass(name);
-            log.debug("Found [{}] in {}", name, f.getAbsolutePath());
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (delegatingParent == null) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz == null) {
+                clazz = delegatingParent.findClassForArchive(name, this);
+            }
+            if (clazz == null) {
+                // archive might not (yet) be registered at delegating classloader
+                clazz = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(clazz);
+            }
             return clazz;
-        } catch (ClassNotFoundException ex) {
-            throw new ClassNotFoundException("Class "+name+" not found in "+f.getAbsolutePath(), ex);
         }
     }
+
+    /**
+     * Reads all class files of the archive in one sequential pass, so that
+     * classes are defined from memory instead of seeking and inflating each
+     * entry on demand. Signed archives are not preloaded, as their
+     * signatures are only checked when loading via the jar URL.
+     *
+     * @throws IOException if the archive can't be read
+     */
+    void preload() throws IOException {
+        Map<String, byte[]> classes = new ConcurrentHashMap<>();
+        Manifest manifest = null;
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(f), PRELOAD_BUFFER_SIZE))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String entryName = entry.getName();
+                if (entryName.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+                    manifest = new Manifest(in);
+                } else if (entryName.startsWith("META-INF/") && isSignatureFile(entryName)) {
+                    log.debug("Not preloading signed archive {}", archivePath);
+                    return;
+                } else if (entryName.endsWith(".class") && !entryName.startsWith("META-INF/")) {
+                    String className = entryName.substring(0, entryName.length() - 6).replace('/', '.');
+                    classes.put(className, in.readAllBytes());
+                }
+            }
+        }
+        preloadedManifest = manifest;
+        archiveUrl = f.toURI().toURL();
+        preloadedClasses = classes;
+        log.debug("Preloaded {} classes from {}", classes.size(), archivePath);
+    }
+
+    static boolean isSignatureFile(String entryName) {
+        String upperCase = entryName.toUpperCase(Locale.ENGLISH);
+        return upperCase.endsWith(".SF") || upperCase.endsWith(".RSA") || upperCase.endsWith(".DSA") || upperCase.endsWith(".EC");
+    }
+
+    /**
+     * Defines all preloaded classes that are not defined yet. Packages are
+     * defined in parallel. Classes that can't be defined, e.g. due to a
+     * missing super class, are skipped; loading them later fails as usual.
+     * Frees the preloaded class files afterwards.
+     */
+    void defineAll() {
+        final Map<String, byte[]> preloaded = preloadedClasses;
+        if (preloaded == null) {
+            return;
+        }
+        Map<String, List<String>> byPackage = new HashMap<>();
+        for (String className : preloaded.keySet()) {
+            byPackage.computeIfAbsent(ClassFileInfo.getPackageName(className), p -> new ArrayList<>()).add(className);
+        }
+        byPackage.values().parallelStream().forEach(classNames -> {
+            for (String className : classNames) {
+                try {
+                    findLocalClass(className);
+                } catch (ClassNotFoundException | LinkageError ex) {
+                    log.debug("Cannot define preloaded class [{}]: {}", className, ex.toString());
+                }
+            }
+        });
+        preloadedClasses = null;
+    }
+
+    private Class<?> definePreloadedClass(String name, byte[] classFile) {
+        String packageName = ClassFileInfo.getPackageName(name);
+        if (!packageName.isEmpty() && getDefinedPackage(packageName) == null) {
+            try {
+                if (preloadedManifest != null) {
+                    definePackage(packageName, preloadedManifest, archiveUrl);
+                } else {
+                    definePackage(packageName, null, null, null, null, null, null, null);
+                }
+            } catch (IllegalArgumentException ex) {
+                // defined concurrently by another thread
+            }
+        }
+        CodeSource codeSource = new CodeSource(archiveUrl, (CodeSigner[]) null);
+        return defineClass(name, classFile, 0, classFile.length, codeSource);
+    }
+
+    int getDefinedClassCount() {
+        return definedClassCount.get();
+    }
+
+    /**
+     * Sums up the sizes of the class files of the classes defined so far.
+     * Reads the entries of the archive if not done before, so it's meant to
+     * be called once, when the classloader is retired.
+     *
+     * @return size of the defined classes in bytes, 0 if the archive can't
+     * be read anymore
+     */
+    long getDefinedClassBytes() {
+        ArchiveEntryIndex index = getEntryIndex();
+        long bytes = 0;
+        for (String entryName : index.getNames()) {
+            if (!entryName.endsWith(".class") || entryName.startsWith("META-INF/")) {
+                continue;
+            }
+            String className = entryName.substring(0, entryName.length() - 6).replace('/', '.');
+            Class<?> clazz = findLoadedClass(className);
+            if (clazz != null && clazz.getClassLoader() == this) {
+                bytes += index.getSize(entryName);
+            }
+        }
+        return bytes;
+    }
+
+    boolean isStandby() {
+        return standby;
+    }
+
+    void setStandby(boolean standby) {
+        this.standby = standby;
+    }
+
+    /**
+     * Checks whether this archive contains the given class, without loading it
+     *
+     * @param className the binary name of the class
+     * @return true, if archive contains a class file for the given class
+     */
+    boolean containsClass(String className) {
+        return findResource(className.replace('.', '/').concat(".class")) != null;
+    }
+
+    /**
+     * Returns the names of all packages that contain classes in this archive.
+     * The archive is read on first call only.
+     *
+     * @return the package names, empty string for the default package
+     * @throws IOException if the archive can't be read
+     */
+    synchronized Set<String> getPackageNames() throws IOException {
+        if (packageNames == null) {
+            Set<String> packages = new LinkedHashSet<>();
+            try (JarFile jar = new JarFile(f)) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    String entryName = entries.nextElement().getName();
+                    if (entryName.endsWith(".class") && !entryName.startsWith("META-INF/")) {
+                        String className = entryName.substring(0, entryName.length() - 6).replace('/', '.');
+                        packages.add(ClassFileInfo.getPackageName(className));
+                    }
+                }
+            }
+            packageNames = Collections.unmodifiableSet(packages);
+        }
+        return packageNames;
+    }
+
+    /**
+     * Returns the names of all entries of this archive except class files,
+     * including directories. The archive is read on first call only.
+     *
+     * @return the resource names, <code>null</code> if this archive can
+     * provide resources that are not listed as entry, as its manifest
+     * references further archives or it is a multi-release archive
+     * @throws IOException if the archive can't be read
+     */
+    synchronized Set<String> getResourceNames() throws IOException {
+        if (!resourceNamesRead) {
+            Set<String> names = new HashSet<>();
+            try (JarFile jar = new JarFile(f)) {
+                Manifest manifest = jar.getManifest();
+                Attributes attributes = manifest != null ? manifest.getMainAttributes() : null;
+                if (attributes != null
+                        && (attributes.getValue(Attributes.Name.CLASS_PATH) != null
+                        || "true".equalsIgnoreCase(attributes.getValue(Attributes.Name.MULTI_RELEASE)))) {
+                    names = null;
+                } else {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        String entryName = entries.nextElement().getName();
+                        if (!entryName.endsWith(".class")) {
+                            names.add(entryName);
+                        }
+                    }
+                }
+            }
+            resourceNames = names == null ? null : Collections.unmodifiableSet(names);
+            resourceNamesRead = true;
+        }
+        return resourceNames;
+    }
+
+    /**
+     * Returns the content of a resource of this archive, without asking
+     * other classloaders. If the resource is stored uncompressed in the
+     * archive, the buffer maps the archive file: The content is neither
+     * inflated nor copied to the heap, and all callers share the same
+     * memory. Otherwise, f.i. for compressed entries or signed archives, the
+     * content is inflated into a heap buffer. {@link ByteBuffer#isDirect()}
+     * tells which one it is.
+     * <p>
+     * A mapped buffer must not be used anymore after the archive has been
+     * undeployed.
+     *
+     * @param name the resource name
+     * @return a read-only buffer with the content, or <code>null</code> if
+     * this archive does not contain the resource
+     * @throws IOException if the archive can't be read
+     */
+    public ByteBuffer getResourceBuffer(String name) throws IOException {
+        ByteBuffer mapped = mappedResources.get(name);
+        if (mapped == null && getEntryIndex().isStored(name)) {
+            try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                mapped = getEntryIndex().map(channel, name);
+            }
+            if (mapped != null) {
+                ByteBuffer existing = mappedResources.putIfAbsent(name, mapped);
+                if (existing != null) {
+                    mapped = existing;
+                }
+            }
+        }
+        if (mapped != null) {
+            // own position and limit for each caller
+            return mapped.duplicate();
+        }
+
+        URL url = findResource(name);
+        if (url == null) {
+            return null;
+        }
+        log.debug("Resource [{}] of {} is not stored uncompressed, reading it into heap", name, archivePath);
+        try (InputStream in = url.openStream()) {
+            return ByteBuffer.wrap(in.readAllBytes()).asReadOnlyBuffer();
+        }
+    }
+
+    private ArchiveEntryIndex getEntryIndex() {
+        ArchiveEntryIndex index = entryIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            if (entryIndex == null) {
+                try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                    entryIndex = ArchiveEntryIndex.read(channel);
+                } catch (IOException ex) {
+                    log.debug("Cannot read entries of {}, resources are not mapped: {}", archivePath, ex.getMessage());
+                    entryIndex = ArchiveEntryIndex.EMPTY;
+                }
+            }
+            return entryIndex;
+        }
+    }
+
+    /**
+     * Loads a class from this archive only, without any delegation.
+     *
+     * @param name the binary name of the class
+     * @return the class
+     * @throws ClassNotFoundException if this archive does not contain the
+     * class
+     */
+    Class<?> findLocalClass(String name) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz == null) {
+                clazz = findClass(name);
+            }
+            return clazz;
+        }
+    }
+
+    @Override
+    public Class<?> loadClass(String name) throws ClassNotFoundException {
+        log.debug("Trying to load [{}] from {}", name, archivePath);
+        // a miss already names this archive, see findClass()
+        Class<?> clazz = super.loadClass(name);
+        log.debug("Found [{}] in {}", name, archivePath);
+        return clazz;
+    }
     
     
     
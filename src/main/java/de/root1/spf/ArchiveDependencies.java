@@ -0,0 +1,87 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The packages an archive provides to other archives and the packages it
+ * needs from other archives.
+ * <p>
+ * Packages can be declared in the archive's manifest with the
+ * <code>SPF-Export-Package</code> and <code>SPF-Import-Package</code>
+ * headers (comma separated package names). If no exports are declared, all
+ * packages that contain classes are exported. Independent of declared
+ * imports, the classes of the archive are scanned for references to classes
+ * in other packages.
+ *
+ * @author achristian
+ */
+public class ArchiveDependencies {
+
+    /**
+     * Manifest header for packages provided by an archive
+     */
+    public static final String EXPORT_PACKAGE_HEADER = "SPF-Export-Package";
+
+    /**
+     * Manifest header for packages an archive requires from other archives
+     */
+    public static final String IMPORT_PACKAGE_HEADER = "SPF-Import-Package";
+
+    private final Set<String> exportedPackages;
+    private final Set<String> declaredImports;
+    private final Set<String> referencedPackages;
+
+    ArchiveDependencies(Set<String> exportedPackages, Set<String> declaredImports, Set<String> referencedPackages) {
+        this.exportedPackages = Collections.unmodifiableSet(exportedPackages);
+        this.declaredImports = Collections.unmodifiableSet(declaredImports);
+        this.referencedPackages = Collections.unmodifiableSet(referencedPackages);
+    }
+
+    /**
+     * @return packages this archive provides to other archives
+     */
+    public Set<String> getExportedPackages() {
+        return exportedPackages;
+    }
+
+    /**
+     * @return packages declared as required in the archive's manifest
+     */
+    public Set<String> getDeclaredImports() {
+        return declaredImports;
+    }
+
+    /**
+     * @return packages outside this archive that are referenced by its
+     * classes, excluding <code>java.*</code>
+     */
+    public Set<String> getReferencedPackages() {
+        return referencedPackages;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveDependencies{" + "exports=" + exportedPackages + ", declaredImports=" + declaredImports + ", referencedPackages=" + referencedPackages + '}';
+    }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sizes and locations of the entries of a jar file, read from its central
+ * directory. The content of entries that are stored without compression
+ * can be mapped directly from the file. Entries of signed jars and
+ * encrypted entries are never mapped, ZIP64 files are not supported at all.
+ *
+ * @author achristian
+ */
+class ArchiveEntryIndex {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int STORED = 0;
+    private static final int FLAG_ENCRYPTED = 1;
+
+    static final ArchiveEntryIndex EMPTY = new ArchiveEntryIndex(Collections.<String, long[]>emptyMap());
+
+    /**
+     * Entry name to offset of local header and uncompressed size. The offset
+     * is -1 if the entry can't be mapped.
+     */
+    private final Map<String, long[]> entries;
+
+    private ArchiveEntryIndex(Map<String, long[]> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the central directory of a jar file
+     *
+     * @param channel the opened jar file
+     * @return the index
+     * @throws IOException if the file can't be read or is not a supported
+     * zip file
+     */
+    static ArchiveEntryIndex read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("End of central directory not found");
+        }
+        long centralSize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        long centralOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+        if (centralSize == ZIP64_MAGIC || centralOffset == ZIP64_MAGIC) {
+            throw new IOException("ZIP64 is not supported");
+        }
+
+        ByteBuffer central = readFully(channel, centralOffset, (int) centralSize);
+        Map<String, long[]> entries = new HashMap<>();
+        boolean signed = false;
+        int pos = 0;
+        while (pos + CENTRAL_SIZE <= central.limit() && central.getInt(pos) == CENTRAL_SIGNATURE) {
+            int flags = Short.toUnsignedInt(central.getShort(pos + 8));
+            int method = Short.toUnsignedInt(central.getShort(pos + 10));
+            long compressedSize = Integer.toUnsignedLong(central.getInt(pos + 20));
+            long size = Integer.toUnsignedLong(central.getInt(pos + 24));
+            int nameLength = Short.toUnsignedInt(central.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(central.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(central.getShort(pos + 32));
+            long localOffset = Integer.toUnsignedLong(central.getInt(pos + 42));
+            byte[] nameBytes = new byte[nameLength];
+            central.position(pos + CENTRAL_SIZE);
+            central.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (name.startsWith("META-INF/") && ArchiveClassLoader.isSignatureFile(name)) {
+                signed = true;
+            }
+            if (size != ZIP64_MAGIC && !name.endsWith("/")) {
+                boolean stored = method == STORED && (flags & FLAG_ENCRYPTED) == 0
+                        && compressedSize == size && localOffset != ZIP64_MAGIC;
+                entries.put(name, new long[]{stored ? localOffset : -1, size});
+            }
+            pos += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        if (signed) {
+            // content must be verified, which mapping would bypass
+            for (long[] entry : entries.values()) {
+                entry[0] = -1;
+            }
+        }
+        return new ArchiveEntryIndex(entries);
+    }
+
+    /**
+     * @param name the entry name
+     * @return true, if the entry is stored without compression and can be
+     * mapped
+     */
+    boolean isStored(String name) {
+        long[] entry = entries.get(name);
+        return entry != null && entry[0] >= 0;
+    }
+
+    /**
+     * @return the names of all file entries, unmodifiable
+     */
+    Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * @param name the entry name
+     * @return the uncompressed size of the entry, -1 if unknown
+     */
+    long getSize(String name) {
+        long[] entry = entries.get(name);
+        return entry != null ? entry[1] : -1;
+    }
+
+    /**
+     * Maps the content of a stored entry
+     *
+     * @param channel the opened jar file
+     * @param name the entry name
+     * @return a read-only buffer, <code>null</code> if the entry is not
+     * stored without compression
+     * @throws IOException if the file can't be read
+     */
+    MappedByteBuffer map(FileChannel channel, String name) throws IOException {
+        long[] entry = entries.get(name);
+        if (entry == null || entry[0] < 0) {
+            return null;
+        }
+        ByteBuffer local = readFully(channel, entry[0], LOCAL_SIZE);
+        if (local.getInt(0) != LOCAL_SIGNATURE) {
+            throw new IOException("Invalid local header of entry " + name);
+        }
+        long dataOffset = entry[0] + LOCAL_SIZE
+                + Short.toUnsignedInt(local.getShort(26))
+                + Short.toUnsignedInt(local.getShort(28));
+        return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, entry[1]);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
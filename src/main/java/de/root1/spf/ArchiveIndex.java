@@ -0,0 +1,231 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk index of {@link ArchiveInfo}s and content hashes, stored in the
+ * deploy temp folder. Lets the deployer skip inspecting and hashing archives
+ * that did not change since the last run.
+ * <p>
+ * An entry is used as long as file name, size and last modified timestamp of
+ * the archive match.
+ *
+ * @author achristian
+ */
+class ArchiveIndex {
+
+    /**
+     * The logger used for this class
+     */
+    private final static Logger logger = LoggerFactory.getLogger(ArchiveIndex.class);
+
+    private static final int MAGIC = 0x53504649; // "SPFI"
+    private static final int VERSION = 4;
+
+    /**
+     * Index entry for one archive
+     */
+    static class Entry {
+
+        private final ArchiveInfo info;
+        private final String contentHash;
+
+        /**
+         * @param info the archive info
+         * @param contentHash the content hash, <code>null</code> if unknown
+         */
+        Entry(ArchiveInfo info, String contentHash) {
+            this.info = info;
+            this.contentHash = contentHash;
+        }
+
+        ArchiveInfo getInfo() {
+            return info;
+        }
+
+        String getContentHash() {
+            return contentHash;
+        }
+    }
+
+    private final File indexFile;
+
+    /**
+     * @param indexFile the file the index is stored in
+     */
+    ArchiveIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Reads the index. A missing, outdated or corrupt index results in an
+     * empty list.
+     *
+     * @return the entries of the index
+     */
+    List<Entry> load() {
+        List<Entry> entries = new ArrayList<>();
+        if (!indexFile.exists()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.info("Ignoring archive index [{}] of unknown format", indexFile.getName());
+                return entries;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String fileName = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                String contentHash = in.readUTF();
+                List<String> pluginClassNames = readStrings(in, new ArrayList<>());
+                List<String> missingPluginClasses = readStrings(in, new ArrayList<>());
+                List<String> invalidPluginClasses = readStrings(in, new ArrayList<>());
+                Map<String, Set<String>> pluginSuperTypes = new LinkedHashMap<>();
+                for (String pluginClassName : pluginClassNames) {
+                    pluginSuperTypes.put(pluginClassName, readStrings(in, new LinkedHashSet<>()));
+                }
+                Map<String, String> manifestAttributes = new LinkedHashMap<>();
+                int attributeCount = in.readInt();
+                for (int j = 0; j < attributeCount; j++) {
+                    manifestAttributes.put(in.readUTF(), in.readUTF());
+                }
+                Set<String> packageNames = readStrings(in, new LinkedHashSet<>());
+                ArchiveDependencies dependencies = new ArchiveDependencies(
+                        readStrings(in, new LinkedHashSet<>()),
+                        readStrings(in, new LinkedHashSet<>()),
+                        readStrings(in, new LinkedHashSet<>()));
+                ArchiveInfo info = new ArchiveInfo(fileName, length, lastModified, pluginClassNames, missingPluginClasses,
+                        invalidPluginClasses, pluginSuperTypes, manifestAttributes, packageNames, dependencies);
+                entries.add(new Entry(info, contentHash.isEmpty() ? null : contentHash));
+            }
+            logger.debug("Loaded {} entries from archive index", entries.size());
+        } catch (IOException ex) {
+            logger.warn("Cannot read archive index [{}], archives will be inspected again: {}", indexFile.getName(), ex.toString());
+            entries.clear();
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the index. The file is replaced atomically where supported.
+     *
+     * @param entries the entries to write
+     */
+    void save(Collection<Entry> entries) {
+        File part = new File(indexFile.getParentFile(), indexFile.getName() + ".part");
+        try {
+            int written = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(part.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                List<byte[]> serialized = new ArrayList<>(entries.size());
+                for (Entry entry : entries) {
+                    try {
+                        serialized.add(serialize(entry));
+                    } catch (UTFDataFormatException ex) {
+                        // string too long for the format, archive is inspected on next start
+                        logger.debug("Not indexing [{}]: {}", entry.getInfo().getFileName(), ex.getMessage());
+                    }
+                }
+                out.writeInt(serialized.size());
+                for (byte[] bytes : serialized) {
+                    out.write(bytes);
+                }
+                written = serialized.size();
+            }
+            try {
+                Files.move(part.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(part.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            logger.debug("Saved {} entries to archive index", written);
+        } catch (IOException ex) {
+            logger.warn("Cannot write archive index [{}]: {}", indexFile.getName(), ex.toString());
+            part.delete();
+        }
+    }
+
+    private static byte[] serialize(Entry entry) throws IOException {
+        ArchiveInfo info = entry.getInfo();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(info.getFileName());
+            out.writeLong(info.getLength());
+            out.writeLong(info.getLastModified());
+            out.writeUTF(entry.getContentHash() != null ? entry.getContentHash() : "");
+            writeStrings(out, info.getPluginClassNames());
+            writeStrings(out, info.getMissingPluginClasses());
+            writeStrings(out, info.getInvalidPluginClasses());
+            for (String pluginClassName : info.getPluginClassNames()) {
+                writeStrings(out, info.getPluginSuperTypes(pluginClassName));
+            }
+            out.writeInt(info.getManifestAttributes().size());
+            for (Map.Entry<String, String> attribute : info.getManifestAttributes().entrySet()) {
+                out.writeUTF(attribute.getKey());
+                out.writeUTF(attribute.getValue());
+            }
+            writeStrings(out, info.getPackageNames());
+            ArchiveDependencies dependencies = info.getDependencies();
+            writeStrings(out, dependencies.getExportedPackages());
+            writeStrings(out, dependencies.getDeclaredImports());
+            writeStrings(out, dependencies.getReferencedPackages());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static <T extends Collection<String>> T readStrings(DataInputStream in, T strings) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything the deployer needs to know about an archive before loading it:
+ * The plugin implementations listed in
+ * <code>META-INF/services/de.root1.spf.PluginInterface</code>, the manifest
+ * attributes, the packages and the dependencies of the archive.
+ * <p>
+ * Read in one pass by {@link ArchiveInspector} and valid for the given size
+ * and last modified timestamp of the archive file.
+ *
+ * @author achristian
+ */
+public class ArchiveInfo {
+
+    private static final String PLUGIN_ARCHIVE_EXTENSION = ".JAR";
+
+    private final String fileName;
+    private final long length;
+    private final long lastModified;
+    private final List<String> pluginClassNames;
+    private final List<String> missingPluginClasses;
+    private final List<String> invalidPluginClasses;
+    private final Map<String, Set<String>> pluginSuperTypes;
+    private final Map<String, String> manifestAttributes;
+    private final Set<String> packageNames;
+    private final ArchiveDependencies dependencies;
+
+    ArchiveInfo(String fileName, long length, long lastModified, List<String> pluginClassNames, List<String> missingPluginClasses,
+            List<String> invalidPluginClasses, Map<String, Set<String>> pluginSuperTypes, Map<String, String> manifestAttributes,
+            Set<String> packageNames, ArchiveDependencies dependencies) {
+        this.fileName = fileName;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.pluginClassNames = Collections.unmodifiableList(pluginClassNames);
+        this.missingPluginClasses = Collections.unmodifiableList(missingPluginClasses);
+        this.invalidPluginClasses = Collections.unmodifiableList(invalidPluginClasses);
+        this.pluginSuperTypes = Collections.unmodifiableMap(pluginSuperTypes);
+        this.manifestAttributes = Collections.unmodifiableMap(manifestAttributes);
+        this.packageNames = Collections.unmodifiableSet(packageNames);
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * An archive is accepted if it is a jar file that lists at least one
+     * plugin implementation, and none of the listed implementations is known
+     * not to implement {@link PluginInterface}. Implementations that are not
+     * contained in the archive are accepted, as they might be provided by
+     * another archive.
+     *
+     * @return true, if the archive is accepted for deployment
+     */
+    public boolean isAccepted() {
+        return fileName.toUpperCase().endsWith(PLUGIN_ARCHIVE_EXTENSION)
+                && !pluginClassNames.isEmpty()
+                && invalidPluginClasses.isEmpty();
+    }
+
+    /**
+     * @param length current size of the archive file
+     * @param lastModified current last modified timestamp of the archive file
+     * @return true, if this info is still valid for the archive file
+     */
+    boolean isValidFor(long length, long lastModified) {
+        return this.length == length && this.lastModified == lastModified;
+    }
+
+    /**
+     * @return name of the archive file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return size of the archive file this info was read from
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return last modified timestamp of the archive file this info was read
+     * from
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return names of the plugin implementation classes, in order of the
+     * service file
+     */
+    public List<String> getPluginClassNames() {
+        return pluginClassNames;
+    }
+
+    /**
+     * @return plugin implementation classes listed in the service file, but
+     * not contained in the archive. They are loaded from other archives.
+     */
+    public List<String> getMissingPluginClasses() {
+        return missingPluginClasses;
+    }
+
+    /**
+     * @return plugin implementation classes listed in the service file, that
+     * don't implement {@link PluginInterface}
+     */
+    public List<String> getInvalidPluginClasses() {
+        return invalidPluginClasses;
+    }
+
+    /**
+     * Returns the super classes and interfaces of a plugin implementation, as
+     * far as they could be read from class files. Super types of classes in
+     * other archives are missing.
+     *
+     * @param pluginClassName a plugin implementation class of this archive
+     * @return the names of the super types, empty if unknown
+     */
+    public Set<String> getPluginSuperTypes(String pluginClassName) {
+        Set<String> types = pluginSuperTypes.get(pluginClassName);
+        return types != null ? Collections.unmodifiableSet(types) : Collections.<String>emptySet();
+    }
+
+    /**
+     * @return main attributes of the archive's manifest, empty if there is no
+     * manifest
+     */
+    public Map<String, String> getManifestAttributes() {
+        return manifestAttributes;
+    }
+
+    /**
+     * @return names of all packages that contain classes, empty string for
+     * the default package
+     */
+    public Set<String> getPackageNames() {
+        return packageNames;
+    }
+
+    /**
+     * @return the packages this archive exports and imports
+     */
+    public ArchiveDependencies getDependencies() {
+        return dependencies;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveInfo{" + "fileName=" + fileName + ", pluginClassNames=" + pluginClassNames + ", packages=" + packageNames.size() + '}';
+    }
+
+}
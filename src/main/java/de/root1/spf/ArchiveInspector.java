@@ -0,0 +1,271 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import de.root1.spf.utils.ClassFileInfo;
+import de.root1.spf.utils.ServiceFinder;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the {@link ArchiveInfo} of archives. Each archive is opened only once
+ * and read in a single pass over its entries. Results are cached as long as
+ * size and last modified timestamp of the archive file don't change.
+ *
+ * @author achristian
+ */
+class ArchiveInspector {
+
+    /**
+     * The logger used for this class
+     */
+    private final static Logger logger = LoggerFactory.getLogger(ArchiveInspector.class);
+
+    static final String PLUGIN_SERVICE_FILE = "META-INF/services/" + PluginInterface.class.getName();
+
+    private final Map<String, ArchiveInfo> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the info for the given archive, from cache if the archive file
+     * did not change since it was read.
+     *
+     * @param file the archive
+     * @return the info, or <code>null</code> if the archive can't be read
+     */
+    ArchiveInfo inspect(File file) {
+        String key = file.getAbsolutePath();
+        ArchiveInfo info = cache.get(key);
+        if (info != null && info.isValidFor(file.length(), file.lastModified())) {
+            return info;
+        }
+        try {
+            info = read(file);
+            cache.put(key, info);
+            return info;
+        } catch (IOException ex) {
+            logger.warn("Error while inspecting archive: IO error on [" + file.getAbsolutePath() + "].", ex);
+            cache.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Adds an already known info to the cache, f.i. from a persisted index.
+     * It is used as long as size and last modified timestamp of the file
+     * match.
+     *
+     * @param file the archive
+     * @param info the info of the archive
+     */
+    void put(File file, ArchiveInfo info) {
+        cache.put(file.getAbsolutePath(), info);
+    }
+
+    /**
+     * @return all cached infos
+     */
+    Collection<ArchiveInfo> getCachedInfos() {
+        return cache.values();
+    }
+
+    /**
+     * Reads manifest, plugin service file, packages and class references of
+     * the given archive.
+     *
+     * @param file the archive
+     * @return the info
+     * @throws IOException if the archive can't be read
+     */
+    static ArchiveInfo read(File file) throws IOException {
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        Map<String, String> manifestAttributes = new LinkedHashMap<>();
+        List<String> pluginClassNames = Collections.emptyList();
+        Map<String, List<String>> superTypes = new HashMap<>();
+        Set<String> packageNames = new LinkedHashSet<>();
+        Set<String> referencedPackages = new LinkedHashSet<>();
+
+        try (JarFile jar = new JarFile(file, false)) {
+            Manifest manifest = jar.getManifest();
+            if (manifest != null) {
+                for (Map.Entry<Object, Object> attribute : manifest.getMainAttributes().entrySet()) {
+                    manifestAttributes.put(((Attributes.Name) attribute.getKey()).toString(), (String) attribute.getValue());
+                }
+            }
+
+            Enumeration<? extends ZipEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String entryName = entry.getName();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (entryName.equals(PLUGIN_SERVICE_FILE)) {
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        pluginClassNames = ServiceFinder.parseServiceFile(in);
+                    }
+                    continue;
+                }
+                if (!entryName.endsWith(".class") || entryName.startsWith("META-INF/") || entryName.endsWith("module-info.class")) {
+                    continue;
+                }
+                String className = entryName.substring(0, entryName.length() - 6).replace('/', '.');
+                packageNames.add(ClassFileInfo.getPackageName(className));
+                try (InputStream in = jar.getInputStream(entry)) {
+                    ClassFileInfo classFile = ClassFileInfo.read(in);
+                    superTypes.put(className, getSuperTypes(classFile));
+                    for (String referencedClass : classFile.getReferencedClasses()) {
+                        referencedPackages.add(ClassFileInfo.getPackageName(referencedClass));
+                    }
+                } catch (IOException ex) {
+                    superTypes.put(className, null);
+                    logger.debug("Cannot scan class [{}] in [{}]: {}", entryName, file.getName(), ex.getMessage());
+                }
+            }
+        }
+
+        List<String> missingPluginClasses = new ArrayList<>();
+        List<String> invalidPluginClasses = new ArrayList<>();
+        Map<String, Set<String>> pluginSuperTypes = new LinkedHashMap<>();
+        for (String pluginClassName : pluginClassNames) {
+            if (!superTypes.containsKey(pluginClassName)) {
+                // f.i. provided by another archive, deployed after it
+                missingPluginClasses.add(pluginClassName);
+                referencedPackages.add(ClassFileInfo.getPackageName(pluginClassName));
+            }
+            Set<String> types = new LinkedHashSet<>();
+            boolean unresolved = collectSuperTypes(pluginClassName, superTypes, types);
+            if (!unresolved && !types.contains(PluginInterface.class.getName())) {
+                invalidPluginClasses.add(pluginClassName);
+            }
+            pluginSuperTypes.put(pluginClassName, types);
+        }
+
+        referencedPackages.removeAll(packageNames);
+        referencedPackages.removeIf(pkg -> pkg.startsWith("java."));
+
+        String exports = manifestAttributes.get(ArchiveDependencies.EXPORT_PACKAGE_HEADER);
+        String imports = manifestAttributes.get(ArchiveDependencies.IMPORT_PACKAGE_HEADER);
+        ArchiveDependencies dependencies = new ArchiveDependencies(
+                exports != null ? parsePackageList(exports) : packageNames,
+                imports != null ? parsePackageList(imports) : Collections.<String>emptySet(),
+                referencedPackages);
+
+        return new ArchiveInfo(file.getName(), length, lastModified, pluginClassNames, missingPluginClasses,
+                invalidPluginClasses, pluginSuperTypes, manifestAttributes, packageNames, dependencies);
+    }
+
+    private static List<String> getSuperTypes(ClassFileInfo classFile) {
+        List<String> types = new ArrayList<>(classFile.getInterfaces().size() + 1);
+        if (classFile.getSuperName() != null) {
+            types.add(classFile.getSuperName());
+        }
+        types.addAll(classFile.getInterfaces());
+        return types;
+    }
+
+    /**
+     * Collects the names of all super classes and interfaces of a class,
+     * based on the class files, so no class is loaded. Super types that are
+     * not in the archive are read as class files from the parent of the
+     * plugin classloaders. Super types of JDK types are not collected.
+     *
+     * @param className the class
+     * @param superTypes super class and interfaces of the archive's classes,
+     * <code>null</code> if the class file could not be read
+     * @param result receives the names, without the class itself
+     * @return true, if some super types could not be resolved, f.i. because
+     * they are in another plugin archive
+     */
+    static boolean collectSuperTypes(String className, Map<String, List<String>> superTypes, Set<String> result) {
+        Deque<String> pending = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        pending.add(className);
+        boolean unresolved = false;
+        while (!pending.isEmpty()) {
+            String name = pending.poll();
+            if (!visited.add(name)) {
+                continue;
+            }
+            if (!name.equals(className)) {
+                result.add(name);
+            }
+            if (name.startsWith("java.")) {
+                // JDK types don't implement plugin interfaces
+                continue;
+            }
+            List<String> types = superTypes.containsKey(name) ? superTypes.get(name) : readParentSuperTypes(name);
+            if (types == null) {
+                unresolved = true;
+            } else {
+                pending.addAll(types);
+            }
+        }
+        result.remove("java.lang.Object");
+        return unresolved;
+    }
+
+    private static List<String> readParentSuperTypes(String className) {
+        ClassLoader parent = Deployer.getDelegatingPluginClassLoader().getParent();
+        try (InputStream in = parent.getResourceAsStream(className.replace('.', '/').concat(".class"))) {
+            if (in == null) {
+                return null;
+            }
+            return getSuperTypes(ClassFileInfo.read(in));
+        } catch (IOException ex) {
+            logger.debug("Cannot read class [{}]: {}", className, ex.getMessage());
+            return null;
+        }
+    }
+
+    static Set<String> parsePackageList(String value) {
+        Set<String> packages = new LinkedHashSet<>();
+        for (String pkg : value.split(",")) {
+            pkg = pkg.trim();
+            if (!pkg.isEmpty()) {
+                packages.add(pkg);
+            }
+        }
+        return packages;
+    }
+
+}
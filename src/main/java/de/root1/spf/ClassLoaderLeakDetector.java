@@ -0,0 +1,208 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the class loaders of undeployed archives until they are
+ * garbage collected. A class loader that is still reachable a while after
+ * undeploy is most likely leaked, e.g. by a thread, a static reference in a
+ * shared class or a registered driver, and keeps all its classes in
+ * metaspace.
+ *
+ * @author ACHR
+ */
+public class ClassLoaderLeakDetector {
+
+    private final static Logger LOG = LoggerFactory.getLogger(ClassLoaderLeakDetector.class);
+
+    /**
+     * Notifies about collected class loaders. Shared by all instances, the
+     * thread is only needed while there are retired loaders.
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * Information about an undeployed class loader. Does not reference the
+     * class loader itself.
+     */
+    public static final class RetiredLoader {
+
+        private final String name;
+        private final long retiredAt;
+        private final int classCount;
+        private final long classBytes;
+        private volatile boolean reported;
+
+        private RetiredLoader(String name, long retiredAt, int classCount, long classBytes) {
+            this.name = name;
+            this.retiredAt = retiredAt;
+            this.classCount = classCount;
+            this.classBytes = classBytes;
+        }
+
+        /**
+         * @return name of the class loader's archive
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return time of undeploy, in milliseconds since epoch
+         */
+        public long getRetiredAt() {
+            return retiredAt;
+        }
+
+        /**
+         * @return number of classes the class loader defined
+         */
+        public int getClassCount() {
+            return classCount;
+        }
+
+        /**
+         * @return size of the class files the class loader defined. A rough
+         * estimate of the metaspace the loader keeps alive.
+         */
+        public long getClassBytes() {
+            return classBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "RetiredLoader(" + name + ", classes=" + classCount + ", classBytes=" + classBytes + ")";
+        }
+    }
+
+    private final Map<Long, RetiredLoader> retired = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile long threshold = 60000;
+
+    ClassLoaderLeakDetector() {
+    }
+
+    /**
+     * Starts tracking the given, undeployed class loader
+     *
+     * @param cl the class loader
+     */
+    void retire(ArchiveClassLoader cl) {
+        long id = nextId.incrementAndGet();
+        final RetiredLoader loader = new RetiredLoader(cl.toString(), System.currentTimeMillis(), cl.getDefinedClassCount(), cl.getDefinedClassBytes());
+        retired.put(id, loader);
+        // the action must not reference the class loader
+        CLEANER.register(cl, new Collected(retired, id));
+        LOG.debug("Tracking retired {}", loader);
+    }
+
+    private static final class Collected implements Runnable {
+
+        private final Map<Long, RetiredLoader> retired;
+        private final long id;
+
+        private Collected(Map<Long, RetiredLoader> retired, long id) {
+            this.retired = retired;
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            RetiredLoader loader = retired.remove(id);
+            if (loader != null) {
+                LOG.debug("{} has been garbage collected", loader);
+            }
+        }
+    }
+
+    /**
+     * Sets the time after undeploy, after which a class loader that is still
+     * reachable is reported as leaked.
+     *
+     * @param threshold time in milliseconds
+     */
+    void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return retired class loaders that have not been collected yet
+     */
+    public List<RetiredLoader> getRetiredLoaders() {
+        return Collections.unmodifiableList(new ArrayList<>(retired.values()));
+    }
+
+    /**
+     * Returns the retired class loaders that are still reachable longer than
+     * the threshold after undeploy. As a class loader can only be collected
+     * by a garbage collection, a loader might be reported that would be
+     * collected by the next one.
+     *
+     * @return the leak suspects
+     */
+    public List<RetiredLoader> getLeakSuspects() {
+        long deadline = System.currentTimeMillis() - threshold;
+        List<RetiredLoader> suspects = new ArrayList<>();
+        for (RetiredLoader loader : retired.values()) {
+            if (loader.retiredAt < deadline) {
+                suspects.add(loader);
+            }
+        }
+        return suspects;
+    }
+
+    /**
+     * Logs a warning for each leak suspect that was not reported before
+     */
+    void check() {
+        for (RetiredLoader loader : getLeakSuspects()) {
+            if (!loader.reported) {
+                loader.reported = true;
+                LOG.warn("Class loader of undeployed archive is still reachable after {}ms: {} classes, {} bytes of class files in {}. Metaspace used: {} bytes",
+                        System.currentTimeMillis() - loader.retiredAt, loader.classCount, loader.classBytes, loader.name, getMetaspaceUsed());
+            }
+        }
+    }
+
+    /**
+     * @return used metaspace in bytes, -1 if not available
+     */
+    static long getMetaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return -1;
+    }
+
+}
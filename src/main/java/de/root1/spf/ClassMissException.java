@@ -0,0 +1,81 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+/**
+ * A class lookup of the plugin classloaders that found nothing. Archives
+ * probe each other for classes a lot, so these are thrown often during
+ * class loading. The message is only built when asked for, and the stack
+ * trace can be skipped, see {@link #setStackless(boolean)}.
+ *
+ * @author achristian
+ */
+public class ClassMissException extends ClassNotFoundException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Shared by all framework instances, as the delegating classloader is
+     */
+    private static volatile boolean stackless = false;
+
+    private final String className;
+    private final String location;
+
+    /**
+     * @param className name of the missing class
+     * @param location where the class was searched, <code>null</code> if
+     * not worth mentioning
+     * @param cause the miss reported by the JDK, may be <code>null</code>
+     */
+    ClassMissException(String className, String location, Throwable cause) {
+        super(null, cause);
+        this.className = className;
+        this.location = location;
+    }
+
+    /**
+     * Skips filling the stack trace of class misses. The setting is static
+     * and applies to the whole VM. Disabled by default.
+     *
+     * @param stackless true, to skip the stack traces
+     * @see SimplePluginFramework#setStacklessClassMisses(boolean)
+     */
+    public static void setStackless(boolean stackless) {
+        ClassMissException.stackless = stackless;
+    }
+
+    @Override
+    public String getMessage() {
+        if (location == null) {
+            return "Class " + className + " not found.";
+        }
+        return "Class " + className + " not found in " + location;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if (stackless) {
+            return this;
+        }
+        return super.fillInStackTrace();
+    }
+
+}
@@ -24,6 +24,10 @@ package de.root1.spf;
  *
  * @author ACHR
  */
+import de.root1.spf.metrics.Counter;
+import de.root1.spf.metrics.Metrics;
+import de.root1.spf.metrics.Timer;
+import de.root1.spf.utils.ClassFileInfo;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.net.URL;
@@ -31,11 +35,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,27 +52,97 @@ import org.slf4j.LoggerFactory;
  */
 public class DelegatingArchiveClassLoader extends ClassLoader {
 
+    static {
+        // this classloader never defines classes itself, so there is no need
+        // to serialize lookups of different classes
+        registerAsParallelCapable();
+    }
+
     /**
      * The logger used for this class
      */
     private final static Logger LOG = LoggerFactory.getLogger(DelegatingArchiveClassLoader.class);
-    private final List<ArchiveClassLoader> archiveClassLoaders = new ArrayList<>();
-    private final List<String> resolvingClassLoader = Collections.synchronizedList(new ArrayList<>());
+    private final List<ArchiveClassLoader> archiveClassLoaders = new CopyOnWriteArrayList<>();
+
+    /**
+     * Names the current thread is resolving via the plugin archives. An
+     * archive that asks back for such a name while being searched gets a "not
+     * found" instead of ending in an endless recursion. Per thread, so that
+     * lookups of the same name by other threads are not affected.
+     */
+    private final ThreadLocal<Set<String>> resolving = ThreadLocal.withInitial(HashSet::new);
     private final List<String> noInjectionRequired = Collections.synchronizedList(new ArrayList<>());
-    final private Map<String, Class> cachedClazzes = new HashMap<>();
+    final private Map<String, Class<?>> cachedClazzes = new ConcurrentHashMap<>();
+
+    /**
+     * Index from package name to the archives that contain classes of this
+     * package, in registration order. The map and its lists are never
+     * modified, but replaced as a whole when archives are added or removed.
+     */
+    private volatile Map<String, List<ArchiveClassLoader>> packageIndex = Collections.emptyMap();
+
+    /**
+     * Class and resource names that neither the parent nor any archive
+     * provides. Invalidated when an archive is added.
+     */
+    private final LookupCache<Boolean> classMisses = new LookupCache<>(NEGATIVE_CACHE_SIZE);
+    private final LookupCache<Boolean> resourceMisses = new LookupCache<>(NEGATIVE_CACHE_SIZE);
+    private static final int NEGATIVE_CACHE_SIZE = 10000;
+
+    /**
+     * Index from resource name to the archives that contain the resource, in
+     * registration order. Class files are not indexed, they are found via
+     * {@link #packageIndex}. The lists are never modified, but replaced.
+     * Archives whose resources can't be indexed are asked for every name.
+     */
+    private final Map<String, List<ArchiveClassLoader>> resourceIndex = new ConcurrentHashMap<>();
+    private final List<ArchiveClassLoader> unindexedArchives = new CopyOnWriteArrayList<>();
+
+    /**
+     * Results of {@link #getResources(String)}. Invalidated when an archive
+     * is added or removed.
+     */
+    private final LookupCache<List<URL>> resourceResults = new LookupCache<>(RESOURCE_CACHE_SIZE);
+    private static final int RESOURCE_CACHE_SIZE = 1000;
+
+    /**
+     * Serializes modifications of archiveClassLoaders and packageIndex.
+     * Lookups don't need it.
+     */
+    private final Object modificationLock = new Object();
+
+    private volatile Counter classCacheHits;
+    private volatile Counter classCacheMisses;
+    private volatile Counter classNegativeCacheHits;
+    private volatile Counter resourceCacheHits;
+    private volatile Timer modificationLockWait;
 
     public DelegatingArchiveClassLoader(ClassLoader parent) {
         super(parent);
+        setMetrics(new Metrics());
+    }
+
+    /**
+     * Sets the metrics class lookups and modifications are recorded in
+     *
+     * @param metrics the metrics
+     */
+    void setMetrics(Metrics metrics) {
+        classCacheHits = metrics.counter("classloader.cache.hits");
+        classCacheMisses = metrics.counter("classloader.cache.misses");
+        classNegativeCacheHits = metrics.counter("classloader.negativecache.hits");
+        resourceCacheHits = metrics.counter("classloader.resourcecache.hits");
+        modificationLockWait = metrics.timer("classloader.modificationlock.wait");
     }
 
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
 
-        LOG.trace("begin: Trying to find class: {} ; this={}", new Object[]{name, this});
+        LOG.trace("begin: Trying to find class: {} ; this={}", name, this);
 
-        if (resolvingClassLoader.contains(name)) {
-            LOG.trace("resolvingClassLoader=true for {}, throw ClassNotFoundException.", name);
-            throw new ClassNotFoundException("Class " + name + " not found.");
+        if (isResolving(name)) {
+            LOG.trace("resolving=true for {}, throw ClassNotFoundException.", name);
+            throw new ClassMissException(name, null, null);
         }
 
         if (name.startsWith("de.roo1.spf.")) {
@@ -73,168 +150,306 @@ public class DelegatingArchiveClassLoader extends ClassLoader {
             return super.findClass(name);
         }
 
-        synchronized (cachedClazzes) {
-            if (cachedClazzes.containsKey(name)) {
-                LOG.debug("returning cached class ...");
-                return cachedClazzes.get(name);
-            }
+        if (classMisses.contains(name)) {
+            classNegativeCacheHits.increment();
+            LOG.trace("Class {} is known to be missing. Throwing ClassNotFoundException.", name);
+            throw new ClassMissException(name, null, null);
+        }
+        long generation = classMisses.getGeneration();
+
+        // first, parent CL
+        LOG.trace("Trying to find via parent ...");
+        Class<?> clazz = null;
+        try {
+            clazz = super.findClass(name);
+            LOG.trace("Found in parent...");
+        } catch (ClassNotFoundException ex) {
+            LOG.trace("Not found in parent ...");
         }
 
-        synchronized (archiveClassLoaders) {
-
-            // first, parent CL
-            LOG.trace("Trying to find via parent ...");
-            Class<?> clazz = null;
+        // if this nothing was found, try all childs CL...
+        if (clazz == null) {
+            LOG.trace("Trying to find via plugins ...");
+            addResolvingCL(name);
             try {
-                clazz = super.findClass(name);
-                LOG.trace("Found in parent...");
-            } catch (ClassNotFoundException ex) {
-                LOG.trace("Not found in parent ...");
-            }
-
-            // if this nothing was found, try all childs CL...
-            if (clazz == null) {
-                LOG.trace("Trying to find via plugins ...");
-                addResolvingCL(name);
                 clazz = findClassInPlugins(name);
+            } finally {
                 removeResolvingCL(name);
-                if (clazz != null) {
-                    LOG.trace("Found in plugins...");
-                }
             }
-
-            if (clazz == null) {
-                LOG.trace("Class {} not found. Throwing ClassNotFoundException.", name);
-                throw new ClassNotFoundException("Class " + name + " not found.");
+            if (clazz != null) {
+                LOG.trace("Found in plugins...");
             }
+        }
+
+        if (clazz == null) {
+            LOG.trace("Class {} not found. Throwing ClassNotFoundException.", name);
+            classMisses.add(name, Boolean.TRUE, generation);
+            throw new ClassMissException(name, null, null);
+        }
 
 
-            if (LOG.isTraceEnabled())
-            for (Object object : clazz.getDeclaredAnnotations()){
-                Annotation annotation = (Annotation) object;
-                LOG.trace("Class {} is annotated with: {}", name, annotation.annotationType().getCanonicalName());
-            }
+        if (LOG.isTraceEnabled())
+        for (Object object : clazz.getDeclaredAnnotations()){
+            Annotation annotation = (Annotation) object;
+            LOG.trace("Class {} is annotated with: {}", name, annotation.annotationType().getCanonicalName());
+        }
 
-            LOG.trace("end: Clazz {} found via {}", name, clazz.getClassLoader());
-            synchronized (cachedClazzes) {
-                cachedClazzes.put(name, clazz);
-            }
-            return clazz;
+        LOG.trace("end: Clazz {} found via {}", name, clazz.getClassLoader());
+        return clazz;
+    }
+
+    /**
+     * Used by {@link ArchiveClassLoader} to resolve a class: Asks the parent
+     * of this classloader first, then all plugin archives in registration
+     * order. In contrast to {@link #loadClass(String)}, this does not lock on
+     * this classloader.
+     *
+     * @param name the binary name of the class
+     * @param requester the archive that asks
+     * @return the class, or <code>null</code> if not found or if the
+     * requester is in standby and contains the class itself
+     */
+    Class<?> findClassForArchive(String name, ArchiveClassLoader requester) {
+        if (classMisses.contains(name)) {
+            classNegativeCacheHits.increment();
+            LOG.trace("Class {} is known to be missing.", name);
+            return null;
         }
+        long generation = classMisses.getGeneration();
+        try {
+            return getParent().loadClass(name);
+        } catch (ClassNotFoundException ex) {
+            LOG.trace("Not found in parent ...");
+        }
+        if (requester.isStandby() && requester.containsClass(name)) {
+            // don't hand out the class of the version that is replaced
+            return null;
+        }
+        Class<?> clazz = findClassInPlugins(name);
+        if (clazz == null) {
+            classMisses.add(name, Boolean.TRUE, generation);
+        }
+        return clazz;
     }
 
     @Override
     public Enumeration<URL> getResources(String name) throws IOException {
         LOG.trace("Trying to get resources: {}", name);
 
-        List<URL> urlList = new ArrayList<URL>();
-
-        synchronized (archiveClassLoaders) {
-            if (resolvingClassLoader.contains(name)) {
-                LOG.trace("resolvingClassLoader=true, return null.");
-                return null;
-            }
-            // add all parent resources
-            LOG.trace("checking parent class loader ...");
-            Enumeration<URL> urls = super.getResources(name);
-            int i=0;
-            while (urls.hasMoreElements()) {
-                URL url = urls.nextElement();
-                LOG.trace("-> found in parent: {} @ {}", url, super.toString());
-                if (!urlList.contains(url)) {
-                        urlList.add(url);
-                } else {
-                    LOG.trace("URL {} already in list!", url);
-                }
-                i++;
-            }
-            LOG.trace("found {} in parent classloader", i);
-
-
-            // add all child resources
-            for (ArchiveClassLoader classLoader : archiveClassLoaders) {
-                LOG.trace("checking plugin-archive class loader {}...", classLoader);
-                int ii=0;
-                addResolvingCL(name);
-                Enumeration<URL> childUrls = classLoader.getResources(name);
-                removeResolvingCL(name);
-                while (childUrls.hasMoreElements()) {
-                    URL url = childUrls.nextElement();
-                    LOG.trace("-> found in plugin: {} @ {}", url, classLoader);
-                    if (!urlList.contains(url)) {
-                        urlList.add(url);
-                    } else {
-                        LOG.trace("URL {} already in list!", url);
-                    }
-                    ii++;
-                }
-                LOG.trace("found {} in plugin-archive's classloader", i);
-            }
+        if (isResolving(name)) {
+            LOG.trace("resolving=true, return null.");
+            return null;
+        }
+        if (resourceMisses.contains(name)) {
+            LOG.trace("Resource [{}] is known to be missing.", name);
+            return Collections.emptyEnumeration();
+        }
+        List<URL> cached = resourceResults.get(name);
+        if (cached != null) {
+            resourceCacheHits.increment();
+            LOG.trace("Resource [{}] found in cache: {}", name, cached);
+            return Collections.enumeration(cached);
+        }
+        long generation = resourceMisses.getGeneration();
+        long resultGeneration = resourceResults.getGeneration();
+
+        // parent resources first, then plugin archives via findResources()
+        Set<URL> urls = new LinkedHashSet<>();
+        Enumeration<URL> found = super.getResources(name);
+        while (found.hasMoreElements()) {
+            urls.add(found.nextElement());
+        }
 
+        LOG.trace("Resource [{}] found in: {}", name, urls);
+        if (urls.isEmpty()) {
+            resourceMisses.add(name, Boolean.TRUE, generation);
+            return Collections.emptyEnumeration();
         }
-        LOG.trace("Resource [{}] found in: {}", name, urlList);
-        return Collections.enumeration(urlList);
+        List<URL> result = Collections.unmodifiableList(new ArrayList<>(urls));
+        resourceResults.add(name, result, resultGeneration);
+        return Collections.enumeration(result);
     }
 
     @Override
     protected URL findResource(String name) {
         LOG.trace("Trying to find resource: {}", name);
-        synchronized (archiveClassLoaders) {
-            if (resolvingClassLoader.contains(name)) {
-                LOG.trace("resolvingClassLoader=true, return null.");
-                return null;
-            }
-            URL url = super.findResource(name);
-            if (url == null) {
-                LOG.trace("Trying to find via plugins ...");
-                addResolvingCL(name);
+        if (isResolving(name)) {
+            LOG.trace("resolving=true, return null.");
+            return null;
+        }
+        if (resourceMisses.contains(name)) {
+            LOG.trace("Resource [{}] is known to be missing.", name);
+            return null;
+        }
+        long generation = resourceMisses.getGeneration();
+        URL url = super.findResource(name);
+        if (url == null) {
+            LOG.trace("Trying to find via plugins ...");
+            addResolvingCL(name);
+            try {
                 url = findResourceInPlugins(name);
+            } finally {
                 removeResolvingCL(name);
-                if (url != null) {
-                    LOG.trace("Found in plugins...");
-                }
+            }
+            if (url != null) {
+                LOG.trace("Found in plugins...");
             } else {
-                LOG.trace("Found in parent...");
+                resourceMisses.add(name, Boolean.TRUE, generation);
             }
-            return url;
+        } else {
+            LOG.trace("Found in parent...");
         }
+        return url;
     }
 
     private URL findResourceInPlugins(String name) {
-        synchronized (archiveClassLoaders) {
-            for (ClassLoader cl : archiveClassLoaders) {
-                final URL url = cl.getResource(name);
-                if (url != null) {
-                    LOG.trace("Found in plugin, return it!");
-                    return url;
-                }
-                LOG.trace("Nothing found in plugin, trying next");
+        for (ArchiveClassLoader cl : getResourceCandidates(name)) {
+            final URL url = cl.findResource(name);
+            if (url != null) {
+                LOG.trace("Found in plugin, return it!");
+                return url;
             }
-            LOG.trace("Nothing found in plugins, returning null");
-            return null;
+            LOG.trace("Nothing found in plugin, trying next");
         }
+        LOG.trace("Nothing found in plugins, returning null");
+        return null;
     }
 
+    /**
+     * Searches the plugin archives in registration order. Only archives that
+     * contain the class are asked to load it, so that a lookup never waits
+     * for the class loading lock of an archive that can't provide the class.
+     * Candidate archives are taken from the package index.
+     *
+     * @param name the binary name of the class
+     * @return the class, or <code>null</code> if not found
+     */
     private Class<?> findClassInPlugins(String name) {
         LOG.trace("begin: Searching in plugin-archives for {} ...", name);
-        synchronized (archiveClassLoaders) {
-
-            for (ArchiveClassLoader acl : archiveClassLoaders) {
-                Class<?> clazz = null;
-                LOG.trace("Searching in plugin-archive {} for {}",acl,name);
-                try {
-                    clazz = acl.loadClass(name);
-                } catch (Throwable ex) {
-                    LOG.trace("{}: {}. -> Nothing found in plugin-archive for {}, trying next", new Object[]{ex.getClass(), ex.getMessage(), name});
-                }
-                if (clazz != null) {
-                    LOG.trace("end: Found {} in plugin-archive {}, return it!", name, acl);
-                    return clazz;
+
+        Class<?> cachedClazz = cachedClazzes.get(name);
+        if (cachedClazz != null) {
+            classCacheHits.increment();
+            LOG.trace("returning cached class ...");
+            return cachedClazz;
+        }
+        classCacheMisses.increment();
+
+        for (ArchiveClassLoader acl : getCandidates(name)) {
+            if (!acl.containsClass(name)) {
+                continue;
+            }
+            Class<?> clazz = null;
+            LOG.trace("Searching in plugin-archive {} for {}", acl, name);
+            try {
+                clazz = acl.findLocalClass(name);
+            } catch (Throwable ex) {
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("{}: {}. -> Nothing found in plugin-archive for {}, trying next", ex.getClass(), ex.getMessage(), name);
                 }
-                LOG.trace("Nothing found in plugin-archive {} for {}, trying next", acl, name);
+            }
+            if (clazz != null) {
+                LOG.trace("end: Found {} in plugin-archive {}, return it!", name, acl);
+                cachedClazzes.put(name, clazz);
+                return clazz;
+            }
+            LOG.trace("Nothing found in plugin-archive {} for {}, trying next", acl, name);
 
+        }
+        LOG.trace("end: Nothing found in plugin-archives for {}, returning null", name);
+        return null;
+    }
+
+    /**
+     * Returns the archives that contain classes in the package of the given
+     * class, in registration order.
+     *
+     * @param className the binary name of the class
+     * @return the candidate archives, maybe empty
+     */
+    private List<ArchiveClassLoader> getCandidates(String className) {
+        List<ArchiveClassLoader> candidates = packageIndex.get(ClassFileInfo.getPackageName(className));
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the archives that might contain the given resource, in
+     * registration order.
+     *
+     * @param name the resource name
+     * @return the candidate archives, maybe empty
+     */
+    private List<ArchiveClassLoader> getResourceCandidates(String name) {
+        List<ArchiveClassLoader> candidates;
+        if (name.endsWith(".class")) {
+            candidates = getCandidates(name.substring(0, name.length() - 6).replace('/', '.'));
+        } else {
+            candidates = resourceIndex.getOrDefault(name, Collections.<ArchiveClassLoader>emptyList());
+        }
+        if (unindexedArchives.isEmpty()) {
+            return candidates;
+        }
+        List<ArchiveClassLoader> merged = new ArrayList<>();
+        for (ArchiveClassLoader cl : archiveClassLoaders) {
+            if (candidates.contains(cl) || unindexedArchives.contains(cl)) {
+                merged.add(cl);
             }
-            LOG.trace("end: Nothing found in plugin-archives for {}, returning null", name);
+        }
+        return merged;
+    }
+
+    /**
+     * Adds an archive to {@link #resourceIndex}, at its position in
+     * {@link #archiveClassLoaders}. Called with modificationLock held.
+     */
+    private void indexResources(ArchiveClassLoader cl, Set<String> resourceNames) {
+        if (resourceNames == null) {
+            unindexedArchives.add(cl);
+            return;
+        }
+        int position = archiveClassLoaders.indexOf(cl);
+        boolean last = position == archiveClassLoaders.size() - 1;
+        for (String name : resourceNames) {
+            resourceIndex.compute(name, (n, candidates) -> {
+                List<ArchiveClassLoader> list = candidates == null ? new ArrayList<>(1) : new ArrayList<>(candidates);
+                int i = list.size();
+                if (!last) {
+                    while (i > 0 && archiveClassLoaders.indexOf(list.get(i - 1)) > position) {
+                        i--;
+                    }
+                }
+                list.add(i, cl);
+                return Collections.unmodifiableList(list);
+            });
+        }
+    }
+
+    /**
+     * Removes an archive from {@link #resourceIndex}. Called with
+     * modificationLock held.
+     */
+    private void unindexResources(ArchiveClassLoader cl, Set<String> resourceNames) {
+        if (resourceNames == null) {
+            unindexedArchives.remove(cl);
+            return;
+        }
+        for (String name : resourceNames) {
+            resourceIndex.computeIfPresent(name, (n, candidates) -> {
+                List<ArchiveClassLoader> list = new ArrayList<>(candidates);
+                list.remove(cl);
+                return list.isEmpty() ? null : Collections.unmodifiableList(list);
+            });
+        }
+    }
+
+    private Set<String> getResourceNames(ArchiveClassLoader cl) {
+        try {
+            return cl.getResourceNames();
+        } catch (IOException ex) {
+            LOG.warn("Cannot read resources of " + cl + ". The archive is asked for every resource.", ex);
             return null;
         }
     }
@@ -248,89 +463,159 @@ public class DelegatingArchiveClassLoader extends ClassLoader {
                 }
             }
         }
-        synchronized (archiveClassLoaders) {
+        Set<String> packageNames = getPackageNames(cl);
+        Set<String> resourceNames = getResourceNames(cl);
+        long lockStart = modificationLockWait.start();
+        synchronized (modificationLock) {
+            modificationLockWait.stop(lockStart);
             if (!archiveClassLoaders.contains(cl)) {
+                Map<String, List<ArchiveClassLoader>> newIndex = new HashMap<>(packageIndex);
+                for (String packageName : packageNames) {
+                    List<ArchiveClassLoader> candidates = new ArrayList<>(newIndex.getOrDefault(packageName, Collections.<ArchiveClassLoader>emptyList()));
+                    candidates.add(cl);
+                    newIndex.put(packageName, Collections.unmodifiableList(candidates));
+                }
                 archiveClassLoaders.add(cl);
+                packageIndex = Collections.unmodifiableMap(newIndex);
+                indexResources(cl, resourceNames);
+            }
+        }
+        // the new archive might provide names that were missing so far
+        classMisses.invalidate();
+        resourceMisses.invalidate();
+        resourceResults.invalidate();
+    }
+
+    /**
+     * Replaces a registered archive by a new version in one step. The new
+     * version takes the position of the old one in lookup order. Classes
+     * cached from the old version are dropped.
+     *
+     * @param oldCl the registered archive
+     * @param newCl the new version
+     */
+    void replaceArchiveClassLoader(ArchiveClassLoader oldCl, ArchiveClassLoader newCl) {
+        LOG.debug("Replacing ArchiveClassLoader {} by {}", oldCl, newCl);
+        Set<String> oldResourceNames = getResourceNames(oldCl);
+        Set<String> newResourceNames = getResourceNames(newCl);
+        long lockStart = modificationLockWait.start();
+        synchronized (modificationLock) {
+            modificationLockWait.stop(lockStart);
+            List<ArchiveClassLoader> loaders = new ArrayList<>(archiveClassLoaders);
+            int index = loaders.indexOf(oldCl);
+            if (index < 0) {
+                loaders.add(newCl);
+            } else {
+                loaders.set(index, newCl);
+            }
+            Map<String, List<ArchiveClassLoader>> newIndex = new HashMap<>();
+            for (ArchiveClassLoader cl : loaders) {
+                for (String packageName : getPackageNames(cl)) {
+                    newIndex.computeIfAbsent(packageName, p -> new ArrayList<>()).add(cl);
+                }
+            }
+            for (Map.Entry<String, List<ArchiveClassLoader>> entry : newIndex.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            if (index < 0) {
+                archiveClassLoaders.add(newCl);
+            } else {
+                archiveClassLoaders.set(index, newCl);
+            }
+            packageIndex = Collections.unmodifiableMap(newIndex);
+            unindexResources(oldCl, oldResourceNames);
+            indexResources(newCl, newResourceNames);
+        }
+        newCl.setStandby(false);
+        purgeCachedClasses(oldCl);
+        classMisses.invalidate();
+        resourceMisses.invalidate();
+        resourceResults.invalidate();
+    }
+
+    private Set<String> getPackageNames(ArchiveClassLoader cl) {
+        try {
+            return cl.getPackageNames();
+        } catch (IOException ex) {
+            LOG.warn("Cannot read packages of " + cl + ". Classes of this archive can't be found by other archives.", ex);
+            return Collections.emptySet();
+        }
+    }
+
+    private void purgeCachedClasses(ArchiveClassLoader cl) {
+        Iterator<Map.Entry<String, Class<?>>> iterator = cachedClazzes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Class<?>> entry = iterator.next();
+            if (cl == entry.getValue().getClassLoader()) {
+                iterator.remove();
+                noInjectionRequired.remove(entry.getKey());
             }
         }
     }
 
     public void removeArchiveClassLoader(ArchiveClassLoader cl) {
         LOG.debug("Removing ArchiveClassLoader: {}", cl);
-        synchronized (archiveClassLoaders) {
-            archiveClassLoaders.remove(cl);
-        }
-        Iterator<String> iterator = cachedClazzes.keySet().iterator();
-        synchronized(cachedClazzes) {
-            List<String> clazzesToRemoveFromCache = new ArrayList<>();
-            while (iterator.hasNext()) {
-                String clazzName = iterator.next();
-                if (cl==cachedClazzes.get(clazzName).getClassLoader()) {
-                    clazzesToRemoveFromCache.add(clazzName);
+        Set<String> resourceNames = getResourceNames(cl);
+        long lockStart = modificationLockWait.start();
+        synchronized (modificationLock) {
+            modificationLockWait.stop(lockStart);
+            if (archiveClassLoaders.remove(cl)) {
+                Map<String, List<ArchiveClassLoader>> newIndex = new HashMap<>();
+                for (Map.Entry<String, List<ArchiveClassLoader>> entry : packageIndex.entrySet()) {
+                    List<ArchiveClassLoader> candidates = entry.getValue();
+                    if (candidates.contains(cl)) {
+                        candidates = new ArrayList<>(candidates);
+                        candidates.remove(cl);
+                        if (candidates.isEmpty()) {
+                            continue;
+                        }
+                        candidates = Collections.unmodifiableList(candidates);
+                    }
+                    newIndex.put(entry.getKey(), candidates);
                 }
-            }
-            for (String clazzToRemove : clazzesToRemoveFromCache) {
-                cachedClazzes.remove(clazzToRemove);
-                noInjectionRequired.remove(clazzToRemove);
+                packageIndex = Collections.unmodifiableMap(newIndex);
+                unindexResources(cl, resourceNames);
             }
         }
+        purgeCachedClasses(cl);
+        resourceResults.invalidate();
     }
 
     @Override
     protected Enumeration<URL> findResources(String name) throws IOException {
         LOG.trace("begin: Trying to find resources: {}", name);
 
-        List<URL> urlList = new ArrayList<>();
+        if (isResolving(name)) {
+            LOG.trace("end: resolving=true, return null.");
+            return null;
+        }
 
-        synchronized (archiveClassLoaders) {
-            if (resolvingClassLoader.contains(name)) {
-                LOG.trace("end: resolvingClassLoader=true, return null.");
-                return null;
-            }
-            // add all parent resources
-            LOG.trace("checking parent class loader ...");
-            Enumeration<URL> urls = super.findResources(name);
-            int i=0;
-            while (urls.hasMoreElements()) {
-                URL url = urls.nextElement();
-                LOG.trace("found: {} @ {}", url, super.toString());
-                urlList.add(url);
-                i++;
+        // only archives that contain the name, they don't delegate
+        Set<URL> urls = new LinkedHashSet<>();
+        for (ArchiveClassLoader classLoader : getResourceCandidates(name)) {
+            LOG.trace("checking plugin class loader {}...", classLoader);
+            Enumeration<URL> found = classLoader.findResources(name);
+            while (found.hasMoreElements()) {
+                urls.add(found.nextElement());
             }
-            LOG.trace("found {} in parent classloader", i);
-
+        }
 
-            // add all child resources
-            for (ArchiveClassLoader classLoader : archiveClassLoaders) {
-                LOG.trace("checking plugin class loader {}...", classLoader);
-                int ii=0;
-                addResolvingCL(name);
-                Enumeration<URL> childUrls = classLoader.findResources(name);
-                removeResolvingCL(name);
-                while (childUrls.hasMoreElements()) {
-                    URL url = childUrls.nextElement();
-                    LOG.trace("found: {} @ {}", url, classLoader);
-                    urlList.add(url);
-                    ii++;
-                }
-                LOG.trace("found {} in plugin classloaders", i);
-            }
+        LOG.trace("end: Found urls: {}", urls);
+        return Collections.enumeration(urls);
+    }
 
-        }
-        LOG.trace("end: Found urls: {}", urlList);
-        return Collections.enumeration(urlList);
+    private boolean isResolving(String name) {
+        return resolving.get().contains(name);
     }
 
     private void addResolvingCL(String name) {
         LOG.trace(">>> adding '{}'", name);
-        resolvingClassLoader.add(name);
-        LOG.trace(">>>>> now contains: {}",resolvingClassLoader);
+        resolving.get().add(name);
     }
 
     private void removeResolvingCL(String name) {
         LOG.trace(">>> removing '{}'", name);
-        resolvingClassLoader.remove(name);
-        LOG.trace(">>>>> now contains: {}",resolvingClassLoader);
+        resolving.get().remove(name);
     }
 
     /**
@@ -343,28 +628,12 @@ public class DelegatingArchiveClassLoader extends ClassLoader {
     public ArchiveClassLoader findRelatedArchiveClassLoader(String className){
 
         LOG.trace("begin: Searching related classloader for class [{}]", className);
-        String path = className.replace('.', '/').concat(".class");
-        LOG.trace("Searching path: [{}]", path);
-        for (ArchiveClassLoader archiveClassLoader : archiveClassLoaders) {
-
+        for (ArchiveClassLoader archiveClassLoader : getCandidates(className)) {
             LOG.trace("Searching in child {}",archiveClassLoader);
-
-                URL[] urls = archiveClassLoader.getURLs();
-
-                for (URL url : urls) {
-                    try {
-                        JarFile jar = new JarFile(url.getFile());
-                        ZipEntry entry = jar.getEntry(path);
-                        if (entry!=null) {
-                            LOG.trace("end: Found it: {}", archiveClassLoader);
-                            return archiveClassLoader;
-                        } 
-
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                    }
-                }
-
+            if (archiveClassLoader.containsClass(className)) {
+                LOG.trace("end: Found it: {}", archiveClassLoader);
+                return archiveClassLoader;
+            }
         }
         
         LOG.trace("end: No related classloader found for class [{}]", className);
@@ -0,0 +1,293 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deploy order for a set of archives, based on the packages the archives
+ * export and import (see {@link ArchiveDependencies}).
+ * <p>
+ * The archives are sorted into levels: An archive only depends on archives of
+ * earlier levels (or already deployed archives), so all archives of a level
+ * can be loaded in parallel. Archives that depend on each other in a cycle are
+ * placed together into one level, which is then flagged as cyclic.
+ *
+ * @author achristian
+ */
+class DeployPlan {
+
+    /**
+     * The logger used for this class
+     */
+    private final static Logger logger = LoggerFactory.getLogger(DeployPlan.class);
+
+    /**
+     * A set of archives that can be loaded in parallel
+     */
+    static class Level {
+
+        private final List<Archive> archives;
+        private final boolean cyclic;
+
+        Level(List<Archive> archives, boolean cyclic) {
+            this.archives = archives;
+            this.cyclic = cyclic;
+        }
+
+        /**
+         * @return the archives of this level, in deploy list order
+         */
+        List<Archive> getArchives() {
+            return archives;
+        }
+
+        /**
+         * @return true, if some archives of this level depend on each other
+         */
+        boolean isCyclic() {
+            return cyclic;
+        }
+
+        @Override
+        public String toString() {
+            return "Level{" + "archives=" + archives.size() + ", cyclic=" + cyclic + '}';
+        }
+
+    }
+
+    private final List<Level> levels;
+
+    private DeployPlan(List<Level> levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Creates the deploy plan. Declared imports that are provided neither by
+     * an archive nor by the parent classloader and dependency cycles are
+     * logged immediately.
+     *
+     * @param archivesToDeploy the archives to deploy
+     * @param deployedArchives archives that are already deployed
+     * @param parent the classloader that provides non-plugin classes
+     * @return the plan
+     */
+    static DeployPlan create(List<Archive> archivesToDeploy, Collection<Archive> deployedArchives, ClassLoader parent) {
+        int n = archivesToDeploy.size();
+        ArchiveDependencies[] dependencies = new ArchiveDependencies[n];
+        Map<String, List<Integer>> providers = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            dependencies[i] = archivesToDeploy.get(i).getDependencies();
+            for (String pkg : dependencies[i].getExportedPackages()) {
+                providers.computeIfAbsent(pkg, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Set<String> deployedPackages = new HashSet<>();
+        for (Archive deployed : deployedArchives) {
+            deployedPackages.addAll(deployed.getDependencies().getExportedPackages());
+        }
+
+        // edges: provider -> dependent archive
+        List<Set<Integer>> edges = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            edges.add(new LinkedHashSet<>());
+        }
+        for (int i = 0; i < n; i++) {
+            Set<String> imports = new LinkedHashSet<>(dependencies[i].getDeclaredImports());
+            imports.addAll(dependencies[i].getReferencedPackages());
+            for (String pkg : imports) {
+                List<Integer> providingArchives = providers.get(pkg);
+                if (providingArchives != null) {
+                    for (int provider : providingArchives) {
+                        if (provider != i) {
+                            edges.get(provider).add(i);
+                        }
+                    }
+                } else if (dependencies[i].getDeclaredImports().contains(pkg)
+                        && !deployedPackages.contains(pkg)
+                        && !isProvidedByParent(parent, pkg)) {
+                    logger.error("Archive [{}] imports package [{}], but no archive provides it.", archivesToDeploy.get(i).getName(), pkg);
+                }
+            }
+        }
+
+        // find cycles
+        int[] component = new StronglyConnectedComponents(edges).compute();
+        int componentCount = 0;
+        for (int c : component) {
+            componentCount = Math.max(componentCount, c + 1);
+        }
+        List<List<Integer>> members = new ArrayList<>(componentCount);
+        for (int c = 0; c < componentCount; c++) {
+            members.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            members.get(component[i]).add(i);
+        }
+
+        // longest path to each component gives its level
+        List<Set<Integer>> componentEdges = new ArrayList<>(componentCount);
+        int[] inDegree = new int[componentCount];
+        for (int c = 0; c < componentCount; c++) {
+            componentEdges.add(new HashSet<>());
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j : edges.get(i)) {
+                if (component[i] != component[j] && componentEdges.get(component[i]).add(component[j])) {
+                    inDegree[component[j]]++;
+                }
+            }
+        }
+        int[] componentLevel = new int[componentCount];
+        List<Integer> ready = new ArrayList<>();
+        for (int c = 0; c < componentCount; c++) {
+            if (inDegree[c] == 0) {
+                ready.add(c);
+            }
+        }
+        int levelCount = 0;
+        while (!ready.isEmpty()) {
+            int c = ready.remove(ready.size() - 1);
+            levelCount = Math.max(levelCount, componentLevel[c] + 1);
+            for (int next : componentEdges.get(c)) {
+                componentLevel[next] = Math.max(componentLevel[next], componentLevel[c] + 1);
+                if (--inDegree[next] == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+
+        List<List<Archive>> levelArchives = new ArrayList<>(levelCount);
+        boolean[] cyclic = new boolean[levelCount];
+        for (int l = 0; l < levelCount; l++) {
+            levelArchives.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            levelArchives.get(componentLevel[component[i]]).add(archivesToDeploy.get(i));
+        }
+        for (List<Integer> cycle : members) {
+            if (cycle.size() > 1) {
+                List<String> names = new ArrayList<>();
+                for (int i : cycle) {
+                    names.add(archivesToDeploy.get(i).getName());
+                }
+                logger.warn("Cyclic dependency between archives: {}", names);
+                cyclic[componentLevel[component[cycle.get(0)]]] = true;
+            }
+        }
+
+        List<Level> levels = new ArrayList<>(levelCount);
+        for (int l = 0; l < levelCount; l++) {
+            levels.add(new Level(levelArchives.get(l), cyclic[l]));
+        }
+        logger.debug("Deploy plan for {} archives: {}", n, levels);
+        return new DeployPlan(levels);
+    }
+
+    private static boolean isProvidedByParent(ClassLoader parent, String pkg) {
+        if (pkg.startsWith("java.") || parent.getDefinedPackage(pkg) != null) {
+            return true;
+        }
+        return parent.getResource(pkg.replace('.', '/')) != null;
+    }
+
+    /**
+     * @return the levels, in deploy order
+     */
+    List<Level> getLevels() {
+        return levels;
+    }
+
+    /**
+     * Tarjan's algorithm for strongly connected components. Components are
+     * numbered in reverse topological order.
+     */
+    private static class StronglyConnectedComponents {
+
+        private final List<Set<Integer>> edges;
+        private final int[] index;
+        private final int[] lowLink;
+        private final boolean[] onStack;
+        private final int[] stack;
+        private final int[] component;
+        private int stackSize;
+        private int nextIndex;
+        private int nextComponent;
+
+        StronglyConnectedComponents(List<Set<Integer>> edges) {
+            this.edges = edges;
+            int n = edges.size();
+            index = new int[n];
+            lowLink = new int[n];
+            onStack = new boolean[n];
+            stack = new int[n];
+            component = new int[n];
+            Arrays.fill(index, -1);
+        }
+
+        int[] compute() {
+            for (int i = 0; i < edges.size(); i++) {
+                if (index[i] == -1) {
+                    visit(i);
+                }
+            }
+            return component;
+        }
+
+        private void visit(int v) {
+            index[v] = nextIndex;
+            lowLink[v] = nextIndex;
+            nextIndex++;
+            stack[stackSize++] = v;
+            onStack[v] = true;
+
+            for (int w : edges.get(v)) {
+                if (index[w] == -1) {
+                    visit(w);
+                    lowLink[v] = Math.min(lowLink[v], lowLink[w]);
+                } else if (onStack[w]) {
+                    lowLink[v] = Math.min(lowLink[v], index[w]);
+                }
+            }
+
+            if (lowLink[v] == index[v]) {
+                int w;
+                do {
+                    w = stack[--stackSize];
+                    onStack[w] = false;
+                    component[w] = nextComponent;
+                } while (w != v);
+                nextComponent++;
+            }
+        }
+    }
+
+}
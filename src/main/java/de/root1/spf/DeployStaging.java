@@ -0,0 +1,243 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import de.root1.spf.utils.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages the copies of plugin archives in the deploy temp folder. The
+ * archives are loaded from these copies, so that the original file can be
+ * deleted or replaced to trigger an undeploy or redeploy.
+ * <p>
+ * Copies are addressed by the content hash of the archive: An archive with
+ * the same content as an already staged one reuses the existing copy. If
+ * enabled, copies are created as hard links instead of real copies where the
+ * file system supports it.
+ *
+ * @author achristian
+ */
+class DeployStaging {
+
+    /**
+     * The logger used for this class
+     */
+    private final static Logger logger = LoggerFactory.getLogger(DeployStaging.class);
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    /**
+     * Content hash of a file, valid as long as size and last modified
+     * timestamp don't change
+     */
+    private static class FileHash {
+
+        private final long length;
+        private final long lastModified;
+        private final String hash;
+
+        FileHash(long length, long lastModified, String hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private final File stagingFolder;
+    private final boolean linkFiles;
+    private final Map<String, File> stagedFiles = new ConcurrentHashMap<>();
+    private final Map<String, FileHash> hashCache = new ConcurrentHashMap<>();
+
+    /**
+     * @param stagingFolder folder to store the copies in
+     * @param linkFiles true, to create hard links instead of copies if
+     * possible
+     */
+    DeployStaging(File stagingFolder, boolean linkFiles) {
+        this.stagingFolder = stagingFolder;
+        this.linkFiles = linkFiles;
+    }
+
+    /**
+     * Returns the content hash of the given file. The hash is calculated only
+     * once as long as size and last modified timestamp of the file don't
+     * change.
+     *
+     * @param file the file
+     * @return hex encoded SHA-256 hash of the file content
+     * @throws IOException if file can't be read
+     */
+    String getContentHash(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        FileHash cached = hashCache.get(key);
+        if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+            return cached.hash;
+        }
+        String hash = calculateHash(file);
+        hashCache.put(key, new FileHash(length, lastModified, hash));
+        return hash;
+    }
+
+    /**
+     * Returns the content hash of the given file, if it is already known.
+     * Never reads the file.
+     *
+     * @param file the file
+     * @return the hash, or <code>null</code> if not known for the current
+     * size and last modified timestamp of the file
+     */
+    String getKnownContentHash(File file) {
+        FileHash cached = hashCache.get(file.getAbsolutePath());
+        if (cached != null && cached.length == file.length() && cached.lastModified == file.lastModified()) {
+            return cached.hash;
+        }
+        return null;
+    }
+
+    /**
+     * Registers an already known content hash for a file, f.i. from a
+     * persisted index.
+     *
+     * @param file the file
+     * @param length size of the file the hash was calculated for
+     * @param lastModified last modified timestamp of the file the hash was
+     * calculated for
+     * @param hash the content hash
+     */
+    void putContentHash(File file, long length, long lastModified, String hash) {
+        hashCache.put(file.getAbsolutePath(), new FileHash(length, lastModified, hash));
+    }
+
+    /**
+     * Returns the staged copy of the given archive. Creates it, if there is
+     * no staged copy with the same content yet.
+     *
+     * @param archiveFile the original archive
+     * @param hash content hash of the archive
+     * @return the staged file
+     * @throws IOException if the copy can't be created
+     */
+    File stage(File archiveFile, String hash) throws IOException {
+        File staged = stagedFiles.get(hash);
+        if (staged != null && !staged.exists()) {
+            stagedFiles.remove(hash, staged);
+        }
+        try {
+            return stagedFiles.computeIfAbsent(hash, h -> {
+                try {
+                    return createStagedFile(archiveFile, h);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private File createStagedFile(File archiveFile, String hash) throws IOException {
+        File staged = new File(stagingFolder, "ARCHIVE_" + archiveFile.getName() + "_" + hash + ".deploytmp.jar");
+        staged.deleteOnExit();
+
+        if (linkFiles) {
+            try {
+                Files.deleteIfExists(staged.toPath());
+                Files.createLink(staged.toPath(), archiveFile.toPath());
+                logger.debug("Linked [{}] to deploy temp [{}]", archiveFile, staged);
+                return staged;
+            } catch (IOException | UnsupportedOperationException ex) {
+                logger.debug("Cannot link [{}] to deploy temp, copying instead: {}", archiveFile, ex.toString());
+            }
+        }
+
+        // copy to a temp name first, so that an interrupted copy never shows
+        // up under the content addressed name
+        File part = File.createTempFile("STAGING_", ".part.jar", stagingFolder);
+        part.deleteOnExit();
+        try {
+            logger.debug("Copying [{}] to deploy temp [{}]", archiveFile, staged);
+            Utils.copyFile(archiveFile, part);
+            try {
+                Files.move(part.toPath(), staged.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(part.toPath(), staged.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            part.delete();
+        }
+        return staged;
+    }
+
+    /**
+     * Deletes all staged files that are not in use anymore
+     *
+     * @param inUse the staged files that are still in use
+     */
+    void retain(Collection<File> inUse) {
+        Iterator<Map.Entry<String, File>> iterator = stagedFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            File staged = iterator.next().getValue();
+            if (!inUse.contains(staged)) {
+                iterator.remove();
+                boolean deleted = staged.delete();
+                logger.debug("Removed unused deploy temp [{}]: {}", staged.getName(), deleted);
+            }
+        }
+    }
+
+    private static String calculateHash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(HASH_ALGORITHM + " not available", ex);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
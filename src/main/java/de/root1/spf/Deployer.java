@@ -19,12 +19,27 @@
 package de.root1.spf;
 
 import com.google.common.collect.ArrayListMultimap;
+import de.root1.spf.metrics.Counter;
+import de.root1.spf.metrics.Metrics;
+import de.root1.spf.metrics.Timer;
 import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,13 +67,24 @@ class Deployer implements Runnable {
     /**
      * Flag for stopping the deployer run() method
      */
-    private boolean stopped = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * Notified on shutdown, to end waiting for the next scan
+     */
+    private final Object scanMonitor = new Object();
 
     /**
      * Holds the list of files since last
      */
     private FileList oldFileList;
 
+    /**
+     * Archives that failed to load on last deploy. They are retried on next
+     * change in plugin folder.
+     */
+    private List<Archive> failedArchives = new ArrayList<>();
+
     /**
      * List of known archives and currently loaded plugins. If an archive is
      * deployed, it's added to this map. If it's undeployed, it's removed again.
@@ -73,15 +99,50 @@ class Deployer implements Runnable {
     private static final DelegatingArchiveClassLoader delegatingPluginClassLoader = new DelegatingArchiveClassLoader(ClassLoader.getSystemClassLoader());
 
     /**
-     * flag that is set to true when initial deployment is done
+     * Completed when initial deployment is done. Does not carry the plugins,
+     * as this would keep them and their classloaders reachable forever.
      */
-    private boolean initialDeploymentDone = false;
+    private final CompletableFuture<Void> initialDeployment = new CompletableFuture<>();
+    private final SimplePluginFramework spf;
+
+    private final Counter deployCycles;
+    private final Timer deployDuration;
+    private final Counter archivesLoaded;
+    private final Counter archivesFailed;
+    private final Counter archivesUndeployed;
+    private final Counter archivesRetried;
 
     /**
-     * Monitor object, used with "waitForInitialDeploymentDone"
+     * Watcher used to detect changes in plugin folder. <code>null</code> if
+     * folder is polled.
      */
-    private final Object MONITOR = new Object();
-    private final SimplePluginFramework spf;
+    private FolderWatcher folderWatcher;
+
+    /**
+     * Worker threads used to load archives in parallel. <code>null</code> if
+     * archives are loaded by the deployer thread itself.
+     */
+    private ExecutorService deployWorkers;
+
+    /**
+     * Copies of the archives in the temp folder
+     */
+    private DeployStaging staging;
+
+    /**
+     * Reads and caches the content of the archives in the plugin folder
+     */
+    private final ArchiveInspector inspector = new ArchiveInspector();
+
+    /**
+     * Persisted archive infos and content hashes of the last run
+     */
+    private final ArchiveIndex archiveIndex;
+
+    /**
+     * Name of the archive index file in temp folder
+     */
+    private static final String ARCHIVE_INDEX_FILE = "archive-index.bin";
 
     /*
      * Package private constructor 
@@ -90,7 +151,16 @@ class Deployer implements Runnable {
 
         this.spf = spf;
         this.pluginFolder = pluginFolder;
+        Metrics metrics = spf.getMetrics();
+        this.deployCycles = metrics.counter("deploy.cycles");
+        this.deployDuration = metrics.timer("deploy.duration");
+        this.archivesLoaded = metrics.counter("deploy.archives.loaded");
+        this.archivesFailed = metrics.counter("deploy.archives.failed");
+        this.archivesUndeployed = metrics.counter("deploy.archives.undeployed");
+        this.archivesRetried = metrics.counter("deploy.archives.retried");
+        delegatingPluginClassLoader.setMetrics(metrics);
         this.tempPluginFolder = new File(pluginFolder, "tmp");
+        this.archiveIndex = new ArchiveIndex(new File(tempPluginFolder, ARCHIVE_INDEX_FILE));
 
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
             @Override
@@ -159,7 +229,24 @@ class Deployer implements Runnable {
 
     @Override
     public void run() {
+        try {
+            deploy();
+        } catch (RuntimeException | Error e) {
+            initialDeployment.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void deploy() {
         logger.debug("Deployer is running");
+        staging = new DeployStaging(tempPluginFolder, spf.isLinkStaging());
+        loadArchiveIndex();
+        if (spf.getDetectionMode() == DetectionMode.WATCH_SERVICE) {
+            folderWatcher = FolderWatcher.create(pluginFolder, spf.getDeployDelay());
+            if (folderWatcher == null) {
+                logger.info("Falling back to polling plugin folder every {}ms", spf.getDeployDelay());
+            }
+        }
         while (!stopped) {
 
             File[] fileList = pluginFolder.listFiles(new FileFilter() {
@@ -170,81 +257,71 @@ class Deployer implements Runnable {
             });
             FileList newFileList = new FileList(fileList);
 
-            boolean needToDeploy = false;
-
-            if (oldFileList == null) {
-                needToDeploy = true;
-            } else if (!oldFileList.equals(newFileList)) {
-                needToDeploy = true;
-            }
+            FileList.Diff diff = newFileList.diff(oldFileList);
 
-            if (needToDeploy) {
+            if (oldFileList == null || !diff.isEmpty()) {
 
                 logger.info("Change in deploy folder detected!");
+                long deployStart = deployDuration.start();
+                deployCycles.increment();
                 logger.info("\\/------STARTING-DEPLOY-PROCESS------\\/");
+                logger.debug("Changes: {}", diff);
                 List<Archive> archivesToUndeploy = new ArrayList<Archive>();
                 List<Archive> archivesToDeploy = new ArrayList<Archive>();
 
                 logger.debug("Checking known archives. archiveModuleList.keySet.size: {}", archivePluginList.keySet().size());
 
-                // creating a duplicate list so that modifying list while
-                // iterating through it is not a problem
-                List<Archive> clonedKnownArchives = new ArrayList<Archive>(archivePluginList.keySet());
-
-                for (Archive knownArchive : clonedKnownArchives) {
-
-                    logger.debug("Checking known archive: {}", knownArchive);
+                Map<String, Archive> knownArchives = new HashMap<>();
+                for (Archive knownArchive : archivePluginList.keySet()) {
+                    knownArchives.put(knownArchive.getArchiveFile().getName(), knownArchive);
+                }
 
-                    /*
-                     * check for plugins needed to unload:
-                     * Unload each plugin whose file isnt available in deploy-folder
-                     *
-                     */
-                    if (!knownArchive.getArchiveFile().exists()) {
-                        logger.debug("Undeploy for removed archive triggered: [{}]", knownArchive.getArchiveFile().getName());
-                        archivesToUndeploy.add(knownArchive);
+                /*
+                 * Unload each archive whose file isnt available in deploy-folder
+                 * anymore or has changed. Changed files are checked for
+                 * deployment again below. With hot redeploy, a changed
+                 * archive stays deployed until its new version is loaded.
+                 */
+                Set<String> changedNames = new HashSet<>(diff.getRemoved());
+                changedNames.addAll(diff.getModified());
+                Map<String, Archive> archivesToReplace = new HashMap<>();
+                for (String name : changedNames) {
+                    Archive knownArchive = knownArchives.get(name);
+                    if (knownArchive == null) {
+                        continue;
+                    }
+                    if (spf.isHotRedeploy() && diff.getModified().contains(name) && isDeployable(new File(pluginFolder, name))) {
+                        logger.debug("Hot redeploy for changed archive triggered: [{}]", name);
+                        archivesToReplace.put(name, knownArchive);
                     } else {
-                        /*
-                         * check already loaded plugins:
-                         * is there any change in deploy folder that
-                         * require the plugin to re-load?
-                         *
-                         * if loaded plugin and plugin in deploy folder
-                         * have different parameters (last modified, size, author, version, ...)
-                         * a reload is required
-                         */
-                        Archive deployFolderArchive = new Archive(this, knownArchive.getArchiveFile());
-                        if (!deployFolderArchive.equals(knownArchive)) {
-                            logger.debug("Redeploy for changed archive triggered. New archive: [{}]", deployFolderArchive.getArchiveFile().getName());
-                            archivesToUndeploy.add(knownArchive);
-                            archivesToDeploy.add(deployFolderArchive);
-                        }
+                        logger.debug("Undeploy for removed/changed archive triggered: [{}]", name);
+                        archivesToUndeploy.add(knownArchive);
                     }
                 }
 
-
                 /*
-                 * Check new plugins:
-                 * Load all plugins found in deploy folder that are not already
-                 * in knownModules list
+                 * Archives that failed last time are retried, unless their
+                 * file is gone or has changed
                  */
-                if (fileList != null) {
-                    for (File file : fileList) {
-
-                        if (file.isFile()) {
-                            logger.debug("Checking file for possible deployment: [{}]", file.getName());
-
-                            if (Archive.accepted(file)) {
-
-                                Archive possibleNewArchive = new Archive(this, file);
-                                if (!archivePluginList.containsKey(possibleNewArchive) && !archivesToDeploy.contains(possibleNewArchive)) {
-                                    logger.info("Deploy for archive registered: [{}]", file.getName());
-                                    archivesToDeploy.add(possibleNewArchive);
-                                }
-
-                            }
-                        }
+                for (Archive failedArchive : failedArchives) {
+                    if (!changedNames.contains(failedArchive.getArchiveFile().getName())) {
+                        logger.debug("Retrying deploy for archive: [{}]", failedArchive.getArchiveFile().getName());
+                        archivesToDeploy.add(failedArchive);
+                    }
+                }
 
+                /*
+                 * Check new and changed files for possible deployment
+                 */
+                List<String> candidateNames = new ArrayList<>(diff.getAdded());
+                candidateNames.addAll(diff.getModified());
+                for (String name : candidateNames) {
+                    File file = new File(pluginFolder, name);
+                    logger.debug("Checking file for possible deployment: [{}]", name);
+
+                    if (isDeployable(file)) {
+                        logger.info("Deploy for archive registered: [{}]", name);
+                        archivesToDeploy.add(new Archive(this, file, archivesToReplace.get(name)));
                     }
                 }
 
@@ -260,88 +337,287 @@ class Deployer implements Runnable {
                     undeployArchive(archive);
                 }
                 if (modulesStopped) {
+                    spf.getPluginRegistry().update(archivePluginList.values());
                     logger.info("/\\----------STOPPING-MODULES-FINISHED------/\\");
                 }
 
                 /**
-                 * Load all the archives to resolve dependencies etc. At this
-                 * stage, it is unknown in which order the plugins must be
-                 * created and started
+                 * Load all the archives in order of their dependencies. All
+                 * archives of a level only depend on archives of earlier
+                 * levels and are loaded in parallel.
                  */
                 int toDeployCount = archivesToDeploy.size();
-                int maxLoops = (int) (archivesToDeploy.size() * ((archivesToDeploy.size() / 2D) + 0.5D));
-                logger.debug("Trying to deploy {} archives with max. {} loops. Archive-List: \n{}", new Object[]{archivesToDeploy.size(), maxLoops, archivesToDeploy});
-                int loop = 0;
-                Archive archive;
-                while (!archivesToDeploy.isEmpty()) {
-                    loop++;
-                    if (loop > maxLoops) {
-                        logger.error("Failed to load archives: {}", archivesToDeploy);
-                        break;
+                logger.debug("Trying to deploy {} archives. Archive-List: \n{}", toDeployCount, archivesToDeploy);
+                failedArchives = new ArrayList<>();
+                if (toDeployCount > 0) {
+                    DeployPlan plan = DeployPlan.create(archivesToDeploy, archivePluginList.keySet(), delegatingPluginClassLoader.getParent());
+                    for (DeployPlan.Level level : plan.getLevels()) {
+                        failedArchives.addAll(loadArchives(level.getArchives()));
                     }
-                    archive = archivesToDeploy.remove(0);
-                    logger.debug("Trying to deploy archive [{}]. Loop={}", archive.getName(), loop);
-                    try {
-                        List<PluginContainer> pluginContainerFromArchive = archive.getPluginContainerList();
-                        for (PluginContainer plugincontainer : pluginContainerFromArchive) {
-                            archivePluginList.put(archive, plugincontainer);
-                            spf.doLoaded(plugincontainer);
-                        }
-                        logger.info("Loading archive [{}] done. Loaded {} plugins: {}", new Object[]{archive.getName(), pluginContainerFromArchive.size(), pluginContainerFromArchive});
-                    } catch (Exception ex) {
-                        if (logger.isDebugEnabled()) {
-                            ex.printStackTrace();
-                        }
-                        logger.debug("Loading plugin from archive [" + archive.getName() + "] failed. Reordering list and trying again later. Error details: " + ex.getClass().getName() + ": " + ex.getMessage());
-                        archive.setLastDeployError(ex);
-                        archive.undeployed();
-                        archivesToDeploy.add(archive);
+                    if (!failedArchives.isEmpty()) {
+                        failedArchives = retryArchives(failedArchives);
                     }
                 }
+                archivesFailed.add(failedArchives.size());
 
-                if (loop <= maxLoops) {
+                // keep staged files of failed archives, they are retried on
+                // next change in deploy folder
+                Set<File> stagedFilesInUse = new HashSet<>();
+                for (Archive archive : archivePluginList.keySet()) {
+                    stagedFilesInUse.add(archive.getStagedFile());
+                }
+                for (Archive archive : failedArchives) {
+                    stagedFilesInUse.add(archive.getStagedFile());
+                }
+                staging.retain(stagedFilesInUse);
+
+                if (failedArchives.isEmpty()) {
                     if (toDeployCount > 0) {
                         logger.info("All archives loaded successfully.");
                     }
                 } else {
+                    logger.error("Failed to load archives: {}", failedArchives);
                     logger.error("***** One or more plugins failed to load. *****");
                 }
 
+                saveArchiveIndex();
+
+                deployDuration.stop(deployStart);
                 logger.info("/\\------FINISHED-DEPLOY-PROCESS------/\\");
 
-                if (!initialDeploymentDone) {
-                    initialDeploymentDone = true;
-                    synchronized (MONITOR) {
-                        MONITOR.notifyAll();
-                    }
+                if (!initialDeployment.isDone()) {
+                    initialDeployment.complete(null);
                 }
 
-            } else {
-//                logger.trace("No change in deploy folder detected");
             }
 
             oldFileList = newFileList;
 
-            // loop sleep time
-            try {
-                Thread.sleep(spf.getDeployDelay());
-            } catch (InterruptedException ex) {
-            }
+            spf.getLeakDetector().check();
+            waitForNextScan();
 
         }
 
+        if (folderWatcher != null) {
+            folderWatcher.close();
+        }
+        if (deployWorkers != null) {
+            deployWorkers.shutdown();
+        }
+
         logger.info("Deployer stop has been signaled");
 
-        // undeploy all plugins
-        Iterator<Archive> archiveIter = archivePluginList.keySet().iterator();
-        while (archiveIter.hasNext()) {
-            Archive archive = archiveIter.next();
+        // undeploy all plugins, undeployArchive() modifies archivePluginList
+        for (Archive archive : new ArrayList<>(archivePluginList.keySet())) {
             undeployArchive(archive);
         }
+        spf.getPluginRegistry().update(archivePluginList.values());
 
         logger.info("Deployer has been stopped.");
     }
 
+    private boolean isDeployable(File file) {
+        ArchiveInfo info = inspector.inspect(file);
+        return info != null && Archive.accepted(info);
+    }
+
+    /**
+     * Feeds infos and content hashes of the last run into inspector and
+     * staging, so that unchanged archives are neither inspected nor hashed
+     * again.
+     */
+    private void loadArchiveIndex() {
+        List<ArchiveIndex.Entry> entries = archiveIndex.load();
+        for (ArchiveIndex.Entry entry : entries) {
+            ArchiveInfo info = entry.getInfo();
+            File file = new File(pluginFolder, info.getFileName());
+            inspector.put(file, info);
+            if (entry.getContentHash() != null) {
+                staging.putContentHash(file, info.getLength(), info.getLastModified(), entry.getContentHash());
+            }
+        }
+        logger.info("Loaded {} archive infos from index.", entries.size());
+    }
+
+    /**
+     * Persists infos and content hashes of all archives currently in plugin
+     * folder.
+     */
+    private void saveArchiveIndex() {
+        List<ArchiveIndex.Entry> entries = new ArrayList<>();
+        for (ArchiveInfo info : inspector.getCachedInfos()) {
+            File file = new File(pluginFolder, info.getFileName());
+            if (file.exists() && info.isValidFor(file.length(), file.lastModified())) {
+                entries.add(new ArchiveIndex.Entry(info, staging.getKnownContentHash(file)));
+            }
+        }
+        archiveIndex.save(entries);
+    }
+
+    /**
+     * Loads the given archives in parallel by the deploy workers. The loaded
+     * plugins are registered in the order of the given list, independent of
+     * the order in which the workers finish.
+     *
+     * @param archivesToDeploy the archives to load
+     * @return the archives that could not be loaded
+     */
+    private List<Archive> loadArchives(List<Archive> archivesToDeploy) {
+        logger.debug("Trying to deploy {} archives", archivesToDeploy.size());
+        List<Future<List<PluginContainer>>> results;
+        try {
+            results = loadInParallel(archivesToDeploy);
+        } catch (InterruptedException ex) {
+            logger.warn("Interrupted while loading archives");
+            Thread.currentThread().interrupt();
+            return new ArrayList<>(archivesToDeploy);
+        }
+
+        List<Archive> failed = new ArrayList<>();
+        List<Archive> replaced = new ArrayList<>();
+        for (int i = 0; i < archivesToDeploy.size(); i++) {
+            Archive archive = archivesToDeploy.get(i);
+            try {
+                List<PluginContainer> pluginContainerFromArchive = getResult(results.get(i));
+                Archive replacedArchive = archive.getReplacedArchive();
+                if (replacedArchive != null) {
+                    // new version is loaded, let it take over
+                    archive.replaced();
+                    archivePluginList.removeAll(replacedArchive);
+                    replaced.add(replacedArchive);
+                }
+                for (PluginContainer plugincontainer : pluginContainerFromArchive) {
+                    archivePluginList.put(archive, plugincontainer);
+                    if (plugincontainer.isActivated()) {
+                        spf.doLoaded(plugincontainer);
+                    }
+                }
+                archivesLoaded.increment();
+                logger.info("Loading archive [{}] done. Loaded {} plugins: {}", archive.getName(), pluginContainerFromArchive.size(), pluginContainerFromArchive);
+            } catch (Exception ex) {
+                if (logger.isDebugEnabled()) {
+                    ex.printStackTrace();
+                }
+                logger.debug("Loading plugin from archive [" + archive.getName() + "] failed. Error details: " + ex.getClass().getName() + ": " + ex.getMessage());
+                archive.setLastDeployError(ex);
+                archive.undeployed();
+                failed.add(archive);
+            }
+        }
+
+        spf.getPluginRegistry().update(archivePluginList.values());
+
+        // old versions are stopped only after the new ones are registered
+        for (Archive archive : replaced) {
+            logger.info("Archive [{}] has been replaced by new version", archive.getName());
+            undeployArchive(archive);
+        }
+        return failed;
+    }
+
+    /**
+     * Loads the archives that failed in their level once more, after all
+     * levels are done. This covers dependencies the deploy plan can't see,
+     * f.i. classes loaded via reflection. Archives that only load now are
+     * reported, as their dependencies should be declared instead.
+     *
+     * @param failedArchives archives that failed in their level
+     * @return the archives that could not be loaded
+     */
+    private List<Archive> retryArchives(List<Archive> failedArchives) {
+        logger.debug("Retrying {} failed archives after last level", failedArchives.size());
+        archivesRetried.add(failedArchives.size());
+        List<Archive> stillFailed = loadArchives(failedArchives);
+        for (Archive archive : failedArchives) {
+            if (!stillFailed.contains(archive)) {
+                logger.warn("Archive [{}] could only be loaded on retry, it depends on an archive the deploy order doesn't know about. "
+                        + "Declare the packages it needs with the {} manifest header.", archive.getName(), ArchiveDependencies.IMPORT_PACKAGE_HEADER);
+            }
+        }
+        return stillFailed;
+    }
+
+    /**
+     * Calls {@link Archive#getPluginContainerList()} for each given archive.
+     * Uses the deploy workers if there is more than one archive to load.
+     *
+     * @param archives archives to load
+     * @return the results, in same order as <code>archives</code>
+     * @throws InterruptedException if interrupted while waiting for workers
+     */
+    private List<Future<List<PluginContainer>>> loadInParallel(List<Archive> archives) throws InterruptedException {
+        List<Callable<List<PluginContainer>>> tasks = new ArrayList<>(archives.size());
+        for (Archive archive : archives) {
+            tasks.add(archive::getPluginContainerList);
+        }
+
+        if (archives.size() > 1 && spf.getDeployThreads() > 1) {
+            if (deployWorkers == null) {
+                deployWorkers = Executors.newFixedThreadPool(spf.getDeployThreads(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "PluginDeployer-Worker-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            return deployWorkers.invokeAll(tasks);
+        }
+
+        List<Future<List<PluginContainer>>> results = new ArrayList<>(tasks.size());
+        for (Callable<List<PluginContainer>> task : tasks) {
+            FutureTask<List<PluginContainer>> futureTask = new FutureTask<>(task);
+            futureTask.run();
+            results.add(futureTask);
+        }
+        return results;
+    }
+
+    private static List<PluginContainer> getResult(Future<List<PluginContainer>> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Blocks until the plugin folder needs to be scanned again: Either until
+     * the folder watcher reports a change, or for the configured deploy delay
+     * when polling.
+     */
+    private void waitForNextScan() {
+        if (folderWatcher != null && !folderWatcher.isValid()) {
+            logger.warn("Watching plugin folder failed. Falling back to polling every {}ms", spf.getDeployDelay());
+            folderWatcher.close();
+            folderWatcher = null;
+        }
+        try {
+            if (folderWatcher != null) {
+                while (!stopped && !folderWatcher.awaitChange(spf.getDeployDelay())) {
+                    // no change so far, the folder might not change for a
+                    // long time, but leaked class loaders are still reported
+                    spf.getLeakDetector().check();
+                }
+            } else {
+                // loop sleep time, cut short by shutdown()
+                synchronized (scanMonitor) {
+                    if (!stopped) {
+                        scanMonitor.wait(spf.getDeployDelay());
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+        }
+    }
+
     /**
      * Undeploys a given archive. On the plugin, first invokeStopLifecycle() is
      * called, followed by invokeDestroyLifecycle(). Afterwards the GC will do
@@ -358,14 +634,20 @@ class Deployer implements Runnable {
                 logger.info("Undeploy plugin [{}]", pluginContainer.getName());
                 archivePluginList.remove(archive, pluginContainer);
                 logger.debug("Undeploying: [{}@{}] invoking stop() ... ", pluginContainer.getClass().getName(), archive.getArchiveFile().getName());
-                spf.doPreStop(pluginContainer);
-                pluginContainer.stop();
-                spf.doPostStop(pluginContainer);
+                if (pluginContainer.isActivated()) {
+                    spf.doPreStop(pluginContainer);
+                    pluginContainer.stop();
+                    spf.doPostStop(pluginContainer);
+                } else {
+                    // never used, nothing to stop
+                    pluginContainer.stop();
+                }
                 logger.debug("Undeploying: [{}@{}] invoking stop() ... *done*", pluginContainer.getClass().getName(), archive.getArchiveFile().getName());
 
                 logger.debug("Undeploy plugin [{}] *done*", pluginContainer.getName());
             }
             archive.undeployed();
+            archivesUndeployed.increment();
         } catch (ModuleInstantiationException ex) {
             logger.error("Can deploy archive [{}]. Error was: {}", archive.getArchiveFile().getName(), ex.getMessage());
         }
@@ -378,25 +660,30 @@ class Deployer implements Runnable {
     void shutdown() {
 
         stopped = true;
+        synchronized (scanMonitor) {
+            scanMonitor.notifyAll();
+        }
 
     }
 
     void waitForInitialDeployment() {
-        while (!initialDeploymentDone) {
-            synchronized (MONITOR) {
-                try {
-                    MONITOR.wait(100);
-                } catch (InterruptedException ex) {
-                }
-            }
-        }
+        initialDeployment.join();
+    }
+
+    CompletableFuture<Void> getInitialDeployment() {
+        return initialDeployment;
+    }
+
+    SimplePluginFramework getFramework() {
+        return spf;
+    }
+
+    ArchiveInspector getInspector() {
+        return inspector;
     }
 
-    List<PluginContainer> getPlugins() {
-        Collection<PluginContainer> values = archivePluginList.values();
-        List<PluginContainer> pc = new ArrayList<>();
-        pc.addAll(values);
-        return pc;
+    DeployStaging getStaging() {
+        return staging;
     }
 
     File getPluginTempPath() {
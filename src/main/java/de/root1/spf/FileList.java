@@ -22,15 +22,19 @@ package de.root1.spf;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Snapshot of the files in the plugin folder, indexed by file name.
  *
  * @author ACHR
  */
 public class FileList {
     
-    private List<FileItem> fileItemList = new ArrayList<FileItem>();
+    private final Map<String, FileItem> fileItems = new LinkedHashMap<>();
 
     class FileItem {
 
@@ -63,31 +67,114 @@ public class FileList {
             return false;
         }
 
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 29 * hash + filename.hashCode();
+            hash = 29 * hash + (int) (size ^ (size >>> 32));
+            hash = 29 * hash + (int) (lastModified ^ (lastModified >>> 32));
+            return hash;
+        }
+
+    }
+
+    /**
+     * The changes between two file lists, by file name
+     */
+    public static class Diff {
+
+        private final List<String> added;
+        private final List<String> removed;
+        private final List<String> modified;
+
+        Diff(List<String> added, List<String> removed, List<String> modified) {
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+            this.modified = Collections.unmodifiableList(modified);
+        }
+
+        /**
+         * @return names of files that are new
+         */
+        public List<String> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return names of files that are gone
+         */
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return names of files with changed size or last modified timestamp
+         */
+        public List<String> getModified() {
+            return modified;
+        }
 
+        /**
+         * @return true, if nothing changed
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Diff{" + "added=" + added + ", removed=" + removed + ", modified=" + modified + '}';
+        }
 
     }
 
     public FileList(File[] fileList) {
 
+        if (fileList == null) {
+            return;
+        }
+
+        fileList = fileList.clone();
         Arrays.sort(fileList);
         
         for(File file : fileList) {
 
             if (file.isFile()) {
                 FileItem fi = new FileItem(file);
-                fileItemList.add(fi);
+                fileItems.put(fi.filename, fi);
             }
         }
 
 
     }
-    
-    private int getSize(){
-        return fileItemList.size();
-    }
 
-    private FileItem getIndex(int i){
-        return fileItemList.get(i);
+    /**
+     * Computes the changes from a previous snapshot to this one
+     *
+     * @param previous the previous snapshot, <code>null</code> if there is
+     * none. Then all files are reported as added.
+     * @return the changes
+     */
+    public Diff diff(FileList previous) {
+        Map<String, FileItem> previousItems = previous != null ? previous.fileItems : Collections.<String, FileItem>emptyMap();
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> modified = new ArrayList<>();
+
+        for (FileItem item : fileItems.values()) {
+            FileItem previousItem = previousItems.get(item.filename);
+            if (previousItem == null) {
+                added.add(item.filename);
+            } else if (!previousItem.equals(item)) {
+                modified.add(item.filename);
+            }
+        }
+        for (String filename : previousItems.keySet()) {
+            if (!fileItems.containsKey(filename)) {
+                removed.add(filename);
+            }
+        }
+        return new Diff(added, removed, modified);
     }
 
     @Override
@@ -99,22 +186,13 @@ public class FileList {
 
         FileList other = (FileList) obj;
 
-        // if the other list has different size, they are not equal
-        if (this.getSize()!=other.getSize())
-            return false;
-
-        // if at least one item in the other list doesnt match this list, they are not equal
-        for (int i=0; i<this.getSize(); i++) {
-            if (!this.getIndex(i).equals(other.getIndex(i)))
-                return false;
-        }
-
-        // in all other cases, both lists are equal
-        return true;
+        // same files with same size and timestamp
+        return fileItems.equals(other.fileItems);
     }
 
-
-
-
+    @Override
+    public int hashCode() {
+        return fileItems.hashCode();
+    }
 
 }
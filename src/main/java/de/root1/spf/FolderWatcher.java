@@ -0,0 +1,166 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event based change detection for the plugin folder. Wraps a
+ * {@link WatchService} that is registered for created, modified and deleted
+ * entries of the plugin folder.
+ *
+ * @author achristian
+ */
+class FolderWatcher implements Closeable {
+
+    /**
+     * The logger used for this class
+     */
+    private final static Logger LOG = LoggerFactory.getLogger(FolderWatcher.class);
+
+    private final File folder;
+    private final WatchService watchService;
+    private final long settleTime;
+    private boolean valid = true;
+
+    private FolderWatcher(File folder, WatchService watchService, long settleTime) {
+        this.folder = folder;
+        this.watchService = watchService;
+        this.settleTime = settleTime;
+    }
+
+    /**
+     * Creates a watcher for the given folder.
+     *
+     * @param folder the folder to watch
+     * @param settleTime time in milliseconds the folder has to be quiet before
+     * a change is reported. Used to not pick up half-written archives.
+     * @return the watcher, or <code>null</code> if the file system of the
+     * folder does not provide native change events
+     */
+    static FolderWatcher create(File folder, long settleTime) {
+        WatchService watchService = null;
+        try {
+            Path path = folder.toPath();
+            watchService = path.getFileSystem().newWatchService();
+            // the JDK falls back to a polling implementation on platforms without
+            // native events. In that case our own polling is as good and cheaper.
+            if (watchService.getClass().getName().endsWith("PollingWatchService")) {
+                LOG.info("File system of [{}] does not provide native change events.", folder.getAbsolutePath());
+                watchService.close();
+                return null;
+            }
+            path.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            LOG.debug("Watching [{}] for changes", folder.getAbsolutePath());
+            return new FolderWatcher(folder, watchService, settleTime);
+        } catch (IOException | UnsupportedOperationException ex) {
+            LOG.warn("Cannot watch [" + folder.getAbsolutePath() + "] for changes.", ex);
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Waits until an archive in the watched folder has been created, modified
+     * or deleted. After the first event, this method waits until no further
+     * event was reported for <code>settleTime</code> milliseconds, so that
+     * archives that are still being written are not picked up too early.
+     *
+     * @param timeout max. time in milliseconds to wait for the first event
+     * @return true, if a change was detected, false if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitChange(long timeout) throws InterruptedException {
+        try {
+            WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+            if (key == null) {
+                return false;
+            }
+            boolean changed = processEvents(key);
+            while (valid && (key = watchService.poll(settleTime, TimeUnit.MILLISECONDS)) != null) {
+                changed |= processEvents(key);
+            }
+            return changed;
+        } catch (ClosedWatchServiceException ex) {
+            valid = false;
+            return true;
+        }
+    }
+
+    private boolean processEvents(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOG.trace("Event overflow in [{}]", folder);
+                changed = true;
+            } else {
+                Path context = (Path) event.context();
+                LOG.trace("Event {} for [{}]", event.kind(), context);
+                if (context.getFileName().toString().endsWith(".jar")) {
+                    changed = true;
+                }
+            }
+        }
+        if (!key.reset()) {
+            // folder is no longer accessible, let the deployer do a full scan
+            LOG.warn("Watch key for [{}] is no longer valid", folder.getAbsolutePath());
+            valid = false;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * @return true, if the watcher still receives events for the folder
+     */
+    boolean isValid() {
+        return valid;
+    }
+
+    @Override
+    public void close() {
+        valid = false;
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            LOG.debug("Error while closing watch service", ex);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of lookup results by name (class or resource name), f.i.
+ * names that could not be found or the URLs found for a resource. When the
+ * cache is full, the oldest entries are evicted first.
+ * <p>
+ * Adding an entry is bound to a generation: A lookup reads the generation
+ * before it starts and passes it to {@link #add(String, Object, long)}. If the
+ * cache was invalidated in the meantime, the result is not recorded, as it
+ * might be outdated already.
+ *
+ * @param <V> type of the cached results
+ * @author achristian
+ */
+class LookupCache<V> {
+
+    private final int maxSize;
+    private final Map<String, V> entries = new ConcurrentHashMap<>();
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maxSize max. number of cached names
+     */
+    LookupCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the current generation, to be passed to
+     * {@link #add(String, Object, long)}
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param name class or resource name
+     * @return true, if a result is cached for the name
+     */
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @param name class or resource name
+     * @return the cached result, <code>null</code> if not cached
+     */
+    V get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Records the result of a lookup
+     *
+     * @param name class or resource name
+     * @param value the result, must not be modified afterwards
+     * @param lookupGeneration the generation read before the lookup started
+     */
+    void add(String name, V value, long lookupGeneration) {
+        if (lookupGeneration != generation.get()) {
+            return;
+        }
+        if (entries.putIfAbsent(name, value) == null) {
+            insertionOrder.add(name);
+            while (entries.size() > maxSize) {
+                String eldest = insertionOrder.poll();
+                if (eldest == null) {
+                    break;
+                }
+                entries.remove(eldest);
+            }
+            if (lookupGeneration != generation.get()) {
+                // invalidated while adding
+                entries.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries, f.i. because an archive has been added or removed
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        entries.clear();
+        insertionOrder.clear();
+    }
+
+    /**
+     * @return number of cached names
+     */
+    int size() {
+        return entries.size();
+    }
+
+}
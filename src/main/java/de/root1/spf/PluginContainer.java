@@ -19,6 +19,8 @@
  */
 package de.root1.spf;
 
+import de.root1.spf.metrics.Timer;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,30 +35,235 @@ public class PluginContainer implements Comparable<PluginContainer> {
      */
     private final static Logger LOG = LoggerFactory.getLogger(PluginContainer.class);
 
-    private PluginState state = PluginState.STOPPED;
-    private final PluginInterface plugin;
+    /**
+     * Manifest attribute of an archive that sets the priority of all its
+     * plugins. Either a number or the name of one of the priority constants
+     * in {@link PluginInterface}, like <code>HIGH_PRIO</code>. Plugins with a
+     * lower value are started earlier and stopped later.
+     */
+    public static final String PRIORITY_HEADER = "SPF-Plugin-Priority";
+
+    /**
+     * Manifest attribute of an archive that declares the ids of its plugins
+     * as comma separated <code>class=id</code> pairs, f.i.
+     * <code>com.example.MyPlugin=my-plugin</code>. Optional, but lazy plugins
+     * are only found by id before their activation if it's declared.
+     */
+    public static final String ID_HEADER = "SPF-Plugin-Id";
+
+    private volatile PluginState state = PluginState.STOPPED;
+    private final String className;
     private final int priority;
+    private final String declaredId;
     private final Archive archive;
 
+    /**
+     * The plugin instance. Created on first use if lazy.
+     */
+    private volatile PluginInterface plugin;
+
+    /**
+     * Set as soon as {@link #plugin} is created and, if requested, started
+     */
+    private volatile boolean activated;
+
+    /**
+     * Lazy plugins only: set if the plugin has to be started on activation
+     */
+    private boolean startOnActivation;
+
+    /**
+     * Lazy plugins only: why the activation failed. A failed activation is
+     * not retried.
+     */
+    private volatile Throwable activationError;
+
+    /**
+     * Duration of last start and stop in nanoseconds, only recorded while
+     * metrics are enabled
+     */
+    private volatile long lastStartNanos;
+    private volatile long lastStopNanos;
+
     protected PluginContainer(Archive archive, PluginInterface plugin) {
-        LOG.debug("Creating ModuleContainer: archive={}, plugin.class={}", archive.getName(), plugin.getClass());
+        this(archive, plugin.getClass().getName(), plugin);
+    }
+
+    /**
+     * Creates a container for a lazy plugin. The plugin class is loaded,
+     * instantiated and, if already requested, started on first call of
+     * {@link #getPlugin()}.
+     *
+     * @param archive the archive of the plugin
+     * @param className name of the plugin implementation class
+     */
+    PluginContainer(Archive archive, String className) {
+        this(archive, className, null);
+    }
+
+    private PluginContainer(Archive archive, String className, PluginInterface plugin) {
+        LOG.debug("Creating ModuleContainer: archive={}, plugin.class={}", archive.getName(), className);
+        this.className = className;
         this.plugin = plugin;
+        this.activated = plugin != null;
         this.archive = archive;
-        /**
-         * TODO fix priority
-         */
-        priority = 0;
+        this.priority = parsePriority(archive.getInfo().getManifestAttributes().get(PRIORITY_HEADER), archive.getName());
+        this.declaredId = parseId(archive.getInfo().getManifestAttributes().get(ID_HEADER), className);
     }
 
+    /**
+     * Looks up the id of a plugin class in the value of {@link #ID_HEADER}
+     *
+     * @param value header value, may be <code>null</code>
+     * @param className the plugin implementation class
+     * @return the declared id, <code>null</code> if not declared
+     */
+    static String parseId(String value, String className) {
+        if (value == null) {
+            return null;
+        }
+        for (String pair : value.split(",")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0 && pair.substring(0, separator).trim().equals(className)) {
+                String id = pair.substring(separator + 1).trim();
+                return id.isEmpty() ? null : id;
+            }
+        }
+        return null;
+    }
 
-    public void start() {
-        plugin.startPlugin();
-        state = PluginState.STARTED;
+    /**
+     * Parses the value of {@link #PRIORITY_HEADER}
+     *
+     * @param value header value, may be <code>null</code>
+     * @param archiveName used for logging
+     * @return the priority, {@link PluginInterface#DEFAULT_PRIO} if not set or
+     * invalid
+     */
+    static int parsePriority(String value, String archiveName) {
+        if (value == null || value.trim().isEmpty()) {
+            return PluginInterface.DEFAULT_PRIO;
+        }
+        value = value.trim();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            try {
+                return PluginInterface.class.getField(value).getInt(null);
+            } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException ex1) {
+                LOG.warn("Invalid {} [{}] in archive [{}], using default priority", PRIORITY_HEADER, value, archiveName);
+                return PluginInterface.DEFAULT_PRIO;
+            }
+        }
+    }
+
+
+    public synchronized void start() {
+        if (!activated) {
+            startOnActivation = true;
+            return;
+        }
+        startInstance();
     }
 
-    public void stop() {
+    public synchronized void stop() {
+        if (!activated) {
+            startOnActivation = false;
+            return;
+        }
+        Timer timer = archive.getFramework().getMetrics().timer("plugin.stop");
+        long start = timer.start();
         plugin.stopPlugin();
         state = PluginState.STOPPED;
+        lastStopNanos = timer.stop(start);
+    }
+
+    private void startInstance() {
+        Timer timer = archive.getFramework().getMetrics().timer("plugin.start");
+        long start = timer.start();
+        plugin.startPlugin();
+        state = PluginState.STARTED;
+        lastStartNanos = timer.stop(start);
+    }
+
+    /**
+     * @param unit the time unit
+     * @return duration of the last start of the plugin, 0 if not started yet
+     * or metrics are disabled
+     */
+    public long getLastStartTime(TimeUnit unit) {
+        return unit.convert(lastStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit the time unit
+     * @return duration of the last stop of the plugin, 0 if not stopped yet
+     * or metrics are disabled
+     */
+    public long getLastStopTime(TimeUnit unit) {
+        return unit.convert(lastStopNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true, if the plugin instance has been created
+     */
+    public boolean isActivated() {
+        return activated;
+    }
+
+    /**
+     * Creates the plugin instance of a lazy plugin and starts it, if start
+     * has been requested before. Notifies the deployment listener like
+     * eagerly loaded and started plugins do. The registry is not updated,
+     * see {@link PluginRegistry#refresh()}.
+     *
+     * @return true, if the plugin has been activated by this call
+     * @throws IllegalStateException if the plugin can't be activated, now or
+     * in an earlier attempt
+     */
+    synchronized boolean activate() {
+        // plugin is already set if called again while activating
+        if (activated || plugin != null) {
+            return false;
+        }
+        if (activationError != null) {
+            throw new IllegalStateException("Activation of plugin [" + className + "] failed before: " + activationError.getMessage(), activationError);
+        }
+        LOG.info("Activating plugin [{}] on first use", className);
+        try {
+            plugin = archive.createPlugin(className);
+        } catch (Exception | LinkageError ex) {
+            activationError = ex;
+            throw new IllegalStateException("Can't activate plugin [" + className + "]: " + ex.getMessage(), ex);
+        }
+        SimplePluginFramework spf = archive.getFramework();
+        spf.doLoaded(this);
+        if (startOnActivation) {
+            try {
+                spf.doPreStart(this);
+                startInstance();
+                spf.doPostStart(this);
+            } catch (Throwable t) {
+                LOG.error("Cannot start plugin [" + className + "]", t);
+            }
+        }
+        activated = true;
+        return true;
+    }
+
+    /**
+     * @return true, if activating the lazy plugin failed
+     */
+    boolean isActivationFailed() {
+        return activationError != null;
+    }
+
+    /**
+     * @return the id declared with {@link #ID_HEADER}, <code>null</code> if
+     * not declared
+     */
+    String getDeclaredId() {
+        return declaredId;
     }
 
 
@@ -65,7 +272,7 @@ public class PluginContainer implements Comparable<PluginContainer> {
     }
 
     public int getPriority() {
-        return 0;
+        return priority;
     }
 
     @Override
@@ -85,7 +292,24 @@ public class PluginContainer implements Comparable<PluginContainer> {
         return 0;
     }
 
+    /**
+     * Returns the plugin instance. A lazy plugin is activated by the first
+     * call.
+     *
+     * @return the plugin
+     * @throws IllegalStateException if a lazy plugin can't be activated
+     */
     public PluginInterface getPlugin() {
+        if (!activated && activate()) {
+            archive.getFramework().getPluginRegistry().refresh();
+        }
+        return plugin;
+    }
+
+    /**
+     * @return the plugin instance, <code>null</code> if not yet created
+     */
+    PluginInterface getInstance() {
         return plugin;
     }
 
@@ -94,7 +318,7 @@ public class PluginContainer implements Comparable<PluginContainer> {
     }
 
     public String getName() {
-        return plugin.getClass().getName();
+        return className;
     }
 
     @Override
@@ -0,0 +1,194 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts and stops plugins in waves of equal priority. The plugins of a wave
+ * run in parallel, a wave waits for all earlier waves. Plugins are started
+ * in ascending and stopped in descending order of their priority.
+ *
+ * @author ACHR
+ */
+class PluginLifecycle {
+
+    private final static Logger LOG = LoggerFactory.getLogger(PluginLifecycle.class);
+
+    private final SimplePluginFramework spf;
+
+    /**
+     * Worker threads running start() and stop() of the plugins. Idle threads
+     * terminate after a while.
+     */
+    private ThreadPoolExecutor workers;
+
+    PluginLifecycle(SimplePluginFramework spf) {
+        this.spf = spf;
+    }
+
+    /**
+     * Starts the given plugins wave by wave. Returns immediately.
+     *
+     * @param plugins plugins to start
+     * @return the waves, in the order they are processed
+     */
+    List<PluginWave> start(List<PluginContainer> plugins) {
+        return run(plugins, true);
+    }
+
+    /**
+     * Stops the given plugins wave by wave. Returns immediately.
+     *
+     * @param plugins plugins to stop
+     * @return the waves, in the order they are processed
+     */
+    List<PluginWave> stop(List<PluginContainer> plugins) {
+        return run(plugins, false);
+    }
+
+    private List<PluginWave> run(List<PluginContainer> plugins, final boolean start) {
+        List<PluginWave> waves = createWaves(plugins, !start);
+        CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+        for (final PluginWave wave : waves) {
+            previous = previous.thenCompose(v -> runWave(wave, start));
+        }
+        return waves;
+    }
+
+    /**
+     * Groups the plugins by priority
+     *
+     * @param plugins plugins to group
+     * @param reverse true, to order waves by descending priority
+     * @return the waves
+     */
+    static List<PluginWave> createWaves(List<PluginContainer> plugins, boolean reverse) {
+        TreeMap<Integer, List<PluginContainer>> byPriority = new TreeMap<>();
+        for (PluginContainer plugin : plugins) {
+            byPriority.computeIfAbsent(plugin.getPriority(), p -> new ArrayList<>()).add(plugin);
+        }
+        List<PluginWave> waves = new ArrayList<>(byPriority.size());
+        for (Map.Entry<Integer, List<PluginContainer>> entry : byPriority.entrySet()) {
+            waves.add(new PluginWave(entry.getKey(), entry.getValue()));
+        }
+        if (reverse) {
+            Collections.reverse(waves);
+        }
+        return waves;
+    }
+
+    private CompletableFuture<Void> runWave(PluginWave wave, final boolean start) {
+        LOG.debug("{} wave with priority {}: {}", start ? "Starting" : "Stopping", wave.getPriority(), wave.getPlugins());
+        final long timeout = spf.getPluginTimeout();
+        for (final PluginContainer plugin : wave.getPlugins()) {
+            final CompletableFuture<PluginContainer> result = wave.getPluginCompletion(plugin);
+            if (timeout > 0) {
+                result.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((p, t) -> {
+                    if (t instanceof TimeoutException) {
+                        LOG.error("Plugin [{}] did not {} within {}ms, continuing without it", plugin.getName(), start ? "start" : "stop", timeout);
+                    }
+                });
+            }
+            getWorkers().execute(() -> {
+                try {
+                    if (start) {
+                        startPlugin(plugin);
+                    } else {
+                        stopPlugin(plugin);
+                    }
+                    result.complete(plugin);
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        }
+        Collection<CompletableFuture<PluginContainer>> results = wave.getPluginCompletions().values();
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]))
+                .whenComplete((v, t) -> wave.getCompletion().complete(null));
+        return wave.getCompletion();
+    }
+
+    private void startPlugin(PluginContainer plugin) {
+        if (!plugin.isActivated()) {
+            LOG.info("Start of [{}] deferred until first use", plugin.getName());
+            plugin.start();
+            return;
+        }
+        try {
+            LOG.info("Starting [{}]", plugin.getPlugin().getPluginId());
+            spf.doPreStart(plugin);
+            plugin.start();
+            spf.doPostStart(plugin);
+        } catch (Throwable t) {
+            LOG.error("Cannot start plugin [" + plugin.getPlugin().getPluginId() + "]", t);
+            throw t;
+        }
+    }
+
+    private void stopPlugin(PluginContainer plugin) {
+        if (!plugin.isActivated()) {
+            plugin.stop();
+            return;
+        }
+        try {
+            LOG.info("Stopping [{}]", plugin.getPlugin().getPluginId());
+            spf.doPreStop(plugin);
+            plugin.stop();
+            spf.doPostStop(plugin);
+        } catch (Throwable t) {
+            LOG.error("Cannot stop plugin [" + plugin.getPlugin().getPluginId() + "]", t);
+            throw t;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getWorkers() {
+        if (workers == null) {
+            int threads = spf.getLifecycleThreads();
+            workers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "PluginLifecycle-Worker-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            workers.allowCoreThreadTimeOut(true);
+        }
+        return workers;
+    }
+
+}
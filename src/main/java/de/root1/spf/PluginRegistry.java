@@ -0,0 +1,221 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the deployed plugins by plugin id, implementation class name and
+ * implemented interface. The indexes are immutable and replaced as a whole
+ * on deploy, undeploy and activation of a lazy plugin, so lookups need
+ * neither locks nor copies.
+ * <p>
+ * Lazy plugins are indexed by the names of the interfaces their archive
+ * info lists and by the id declared with {@link PluginContainer#ID_HEADER},
+ * and a lookup that finds them activates them. Without a declared id, a lazy
+ * plugin is only found by id after its activation. Lazy plugins that failed
+ * to activate are not found anymore.
+ *
+ * @author ACHR
+ */
+public class PluginRegistry {
+
+    private final static Logger LOG = LoggerFactory.getLogger(PluginRegistry.class);
+
+    private static final class Snapshot {
+
+        private final List<PluginContainer> plugins;
+        private final Map<String, PluginContainer> byId = new HashMap<>();
+        private final Map<String, PluginContainer> byClassName = new HashMap<>();
+        private final Map<Class<?>, List<PluginContainer>> byInterface = new HashMap<>();
+        private final Map<String, List<PluginContainer>> lazyByInterfaceName = new HashMap<>();
+
+        private Snapshot(List<PluginContainer> plugins) {
+            this.plugins = Collections.unmodifiableList(plugins);
+            Map<Class<?>, List<PluginContainer>> interfaces = new HashMap<>();
+            for (PluginContainer plugin : plugins) {
+                byClassName.putIfAbsent(plugin.getName(), plugin);
+
+                PluginInterface instance = plugin.getInstance();
+                if (!plugin.isActivated() || instance == null) {
+                    if (plugin.isActivationFailed()) {
+                        continue;
+                    }
+                    if (plugin.getDeclaredId() != null) {
+                        putId(plugin.getDeclaredId(), plugin);
+                    }
+                    for (String iface : plugin.getArchive().getInfo().getPluginSuperTypes(plugin.getName())) {
+                        lazyByInterfaceName.computeIfAbsent(iface, i -> new ArrayList<>()).add(plugin);
+                    }
+                    continue;
+                }
+                putId(instance.getPluginId(), plugin);
+                for (Class<?> iface : getInterfaces(instance.getClass())) {
+                    interfaces.computeIfAbsent(iface, i -> new ArrayList<>()).add(plugin);
+                }
+            }
+            for (Map.Entry<Class<?>, List<PluginContainer>> entry : interfaces.entrySet()) {
+                byInterface.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+            }
+        }
+
+        private void putId(String id, PluginContainer plugin) {
+            PluginContainer other = byId.putIfAbsent(id, plugin);
+            if (other != null) {
+                LOG.warn("Plugin id [{}] of [{}] is already used by [{}]", id, plugin.getName(), other.getName());
+            }
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.<PluginContainer>emptyList());
+
+    /**
+     * Current plugins, source of the next snapshot
+     */
+    private List<PluginContainer> current = Collections.emptyList();
+
+    PluginRegistry() {
+    }
+
+    /**
+     * Replaces the registered plugins
+     *
+     * @param plugins all deployed plugins
+     */
+    synchronized void update(Collection<PluginContainer> plugins) {
+        current = new ArrayList<>(plugins);
+        snapshot = new Snapshot(current);
+    }
+
+    /**
+     * Re-indexes the registered plugins, e.g. after a lazy plugin has been
+     * activated
+     */
+    synchronized void refresh() {
+        snapshot = new Snapshot(current);
+    }
+
+    /**
+     * @return all deployed plugins, unmodifiable. Lazy plugins are not
+     * activated.
+     */
+    public List<PluginContainer> getPlugins() {
+        return snapshot.plugins;
+    }
+
+    /**
+     * Looks up a plugin by id. A lazy plugin is only found if its id is
+     * declared, and activated then.
+     *
+     * @param pluginId the id, as returned by
+     * {@link PluginInterface#getPluginId()}
+     * @return the plugin with the given id, <code>null</code> if there is none
+     */
+    public PluginContainer getPluginById(String pluginId) {
+        PluginContainer plugin = snapshot.byId.get(pluginId);
+        if (plugin == null || plugin.isActivated()) {
+            return plugin;
+        }
+        activate(Collections.singletonList(plugin));
+        PluginContainer activated = snapshot.byId.get(pluginId);
+        if (activated == null && plugin.isActivated()) {
+            LOG.warn("Plugin [{}] declares id [{}], but has id [{}]", plugin.getName(), pluginId, plugin.getInstance().getPluginId());
+        }
+        return activated;
+    }
+
+    /**
+     * @param className name of the plugin implementation class
+     * @return the plugin, <code>null</code> if there is none
+     */
+    public PluginContainer getPluginByClassName(String className) {
+        return snapshot.byClassName.get(className);
+    }
+
+    /**
+     * Looks up plugins by interface. Lazy plugins that implement the
+     * interface are activated.
+     *
+     * @param iface an interface or super class
+     * @return all plugins that implement the given interface or extend the
+     * given class, unmodifiable
+     */
+    public List<PluginContainer> getPlugins(Class<?> iface) {
+        List<PluginContainer> lazyPlugins = snapshot.lazyByInterfaceName.get(iface.getName());
+        if (lazyPlugins != null) {
+            activate(lazyPlugins);
+        }
+        List<PluginContainer> plugins = snapshot.byInterface.get(iface);
+        return plugins != null ? plugins : Collections.<PluginContainer>emptyList();
+    }
+
+    /**
+     * Activates the given lazy plugins and re-indexes all plugins once
+     */
+    private void activate(List<PluginContainer> plugins) {
+        boolean changed = false;
+        for (PluginContainer plugin : plugins) {
+            if (plugin.isActivated() || plugin.isActivationFailed()) {
+                continue;
+            }
+            try {
+                changed |= plugin.activate();
+            } catch (IllegalStateException ex) {
+                LOG.warn("Skipping plugin [{}] in lookup: {}", plugin.getName(), ex.getMessage());
+                changed = true;
+            }
+        }
+        if (changed) {
+            refresh();
+        }
+    }
+
+    /**
+     * Collects all super classes and interfaces of the given class,
+     * excluding the class itself and <code>Object</code>
+     */
+    private static Set<Class<?>> getInterfaces(Class<?> clazz) {
+        Set<Class<?>> result = new HashSet<>();
+        List<Class<?>> pending = new ArrayList<>();
+        pending.add(clazz);
+        while (!pending.isEmpty()) {
+            Class<?> c = pending.remove(pending.size() - 1);
+            if (c.getSuperclass() != null && c.getSuperclass() != Object.class && result.add(c.getSuperclass())) {
+                pending.add(c.getSuperclass());
+            }
+            for (Class<?> i : c.getInterfaces()) {
+                if (result.add(i)) {
+                    pending.add(i);
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A group of plugins with the same priority that are started or stopped in
+ * parallel. A wave is only started after all earlier waves are done.
+ *
+ * @author ACHR
+ */
+public class PluginWave {
+
+    private final int priority;
+    private final List<PluginContainer> plugins;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final Map<PluginContainer, CompletableFuture<PluginContainer>> pluginCompletions;
+
+    PluginWave(int priority, List<PluginContainer> plugins) {
+        this.priority = priority;
+        this.plugins = Collections.unmodifiableList(plugins);
+        Map<PluginContainer, CompletableFuture<PluginContainer>> completions = new LinkedHashMap<>();
+        for (PluginContainer plugin : plugins) {
+            completions.put(plugin, new CompletableFuture<>());
+        }
+        this.pluginCompletions = Collections.unmodifiableMap(completions);
+    }
+
+    /**
+     * @return the priority shared by all plugins of this wave
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the plugins of this wave
+     */
+    public List<PluginContainer> getPlugins() {
+        return plugins;
+    }
+
+    /**
+     * Returns a future that is completed when all plugins of this wave have
+     * been started or stopped, have failed or have timed out. Failures of
+     * single plugins are logged and do not complete the future exceptionally.
+     *
+     * @return the completion of this wave
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Returns the futures of the single plugins of this wave. A future is
+     * completed with its plugin when it has been started or stopped, or
+     * exceptionally with the error of the plugin or a
+     * {@link java.util.concurrent.TimeoutException}.
+     *
+     * @return futures by plugin, in order of {@link #getPlugins()}
+     */
+    public Map<PluginContainer, CompletableFuture<PluginContainer>> getPluginCompletions() {
+        return pluginCompletions;
+    }
+
+    /**
+     * @param plugin a plugin of this wave
+     * @return the future of the given plugin, <code>null</code> if it is not
+     * part of this wave
+     * @see #getPluginCompletions()
+     */
+    public CompletableFuture<PluginContainer> getPluginCompletion(PluginContainer plugin) {
+        return pluginCompletions.get(plugin);
+    }
+
+    @Override
+    public String toString() {
+        return "PluginWave(prio=" + priority + ", plugins=" + plugins + ")";
+    }
+
+}
@@ -19,8 +19,11 @@
  */
 package de.root1.spf;
 
+import de.root1.spf.metrics.Metrics;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,9 +38,41 @@ public class SimplePluginFramework {
     private final Deployer deployer;
     private DeploymentListener deploymentListener;
     private final int deployDelay;
+    private final DetectionMode detectionMode;
+    private int deployThreads = Runtime.getRuntime().availableProcessors();
+    private boolean linkStaging = false;
+    private int lifecycleThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private long pluginTimeout = 0;
+    private boolean lazyActivation = false;
+    private boolean hotRedeploy = false;
+    private boolean preloadClasses = false;
+    private final PluginLifecycle lifecycle = new PluginLifecycle(this);
+    private final PluginRegistry registry = new PluginRegistry();
+    private final ClassLoaderLeakDetector leakDetector = new ClassLoaderLeakDetector();
+    private final Metrics metrics = new Metrics();
 
+    /**
+     * Creates a framework instance that polls the plugin folder for changes.
+     *
+     * @param pluginFolder folder that contains the plugin archives
+     * @param deployDelay delay in milliseconds between two folder scans
+     */
     public SimplePluginFramework(File pluginFolder, int deployDelay) {
+        this(pluginFolder, deployDelay, DetectionMode.POLLING);
+    }
+
+    /**
+     * Creates a framework instance.
+     *
+     * @param pluginFolder folder that contains the plugin archives
+     * @param deployDelay delay in milliseconds between two folder scans when
+     * polling. With {@link DetectionMode#WATCH_SERVICE}, this is the time the
+     * folder has to be quiet after a change before the change is deployed.
+     * @param detectionMode how changes in plugin folder are detected
+     */
+    public SimplePluginFramework(File pluginFolder, int deployDelay, DetectionMode detectionMode) {
         this.deployDelay = deployDelay;
+        this.detectionMode = detectionMode;
         if (!pluginFolder.exists()) {
             log.debug("Creating dir {}", pluginFolder.getAbsolutePath());
             pluginFolder.mkdirs();
@@ -56,42 +91,292 @@ public class SimplePluginFramework {
      * @param wait if true, wait until all plugins have been initially deployed
      */
     public void startLoading(boolean wait) {
-        deployerThread.start();
+        CompletableFuture<List<PluginContainer>> initialDeployment = startLoading();
         if (wait) {
-            deployer.waitForInitialDeployment();
+            initialDeployment.join();
         }
     }
 
+    /**
+     * Starting deployer thread without waiting
+     *
+     * @return a future that is completed with the loaded plugins when all
+     * plugins have been initially deployed
+     */
+    public CompletableFuture<List<PluginContainer>> startLoading() {
+        deployerThread.start();
+        return deployer.getInitialDeployment().thenApply(v -> registry.getPlugins());
+    }
+
+    /**
+     * Stops the deployer thread and waits until it has undeployed all
+     * archives. Plugins are stopped, but not via the lifecycle waves.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown() throws InterruptedException {
+        deployer.shutdown();
+        deployerThread.join();
+        metrics.close();
+    }
+
+    /**
+     * Returns the deployed plugins. Waits for the initial deployment.
+     *
+     * @return a copy of the list of deployed plugins
+     */
     public List<PluginContainer> getPluginContainerList() {
         deployer.waitForInitialDeployment();
-        return deployer.getPlugins();
+        return new ArrayList<>(registry.getPlugins());
+    }
+
+    /**
+     * Returns the registry of the deployed plugins, for lookups by plugin id
+     * or interface. The registry is kept up to date while plugins are
+     * deployed and undeployed.
+     *
+     * @return the plugin registry
+     */
+    public PluginRegistry getPluginRegistry() {
+        return registry;
     }
 
+    /**
+     * Starts all plugins and waits until they are started. Plugins are
+     * started in waves of equal priority, see {@link #startPluginWaves()}.
+     */
     public void startPlugins() {
-        for (PluginContainer plugin : deployer.getPlugins()) {
-            try {
-                log.info("Starting [{}]", plugin.getPlugin().getPluginId());
-                doPreStart(plugin);
-                plugin.start();
-                doPostStart(plugin);
-            } catch (Throwable t) {
-                log.error("Cannot start plugin [" + plugin.getPlugin().getPluginId() + "]", t);
-            }
-        }
+        awaitWaves(startPluginWaves());
     }
 
+    /**
+     * Stops all plugins and waits until they are stopped. Plugins are stopped
+     * in waves of equal priority, see {@link #stopPluginWaves()}.
+     */
     public void stopPlugins() {
-        for (PluginContainer plugin : deployer.getPlugins()) {
-            try {
-                log.info("Stopping [{}]", plugin.getPlugin().getPluginId());
-                doPreStop(plugin);
-                plugin.stop();
-                doPostStop(plugin);
-            } catch (Throwable t) {
-                log.error("Cannot stop plugin [" + plugin.getPlugin().getPluginId() + "]", t);
-            }
+        awaitWaves(stopPluginWaves());
+    }
+
+    /**
+     * Starts all plugins without waiting. The plugins are grouped into waves
+     * by their priority, lowest value first. The plugins of a wave are
+     * started in parallel, each wave waits for the earlier waves.
+     *
+     * @return the waves, in start order
+     */
+    public List<PluginWave> startPluginWaves() {
+        return lifecycle.start(registry.getPlugins());
+    }
 
+    /**
+     * Stops all plugins without waiting. The waves are processed in reverse
+     * start order, highest priority value first.
+     *
+     * @return the waves, in stop order
+     */
+    public List<PluginWave> stopPluginWaves() {
+        return lifecycle.stop(registry.getPlugins());
+    }
+
+    /**
+     * Starts all plugins without waiting.
+     *
+     * @return a future that is completed when all waves are done
+     * @see #startPluginWaves()
+     */
+    public CompletableFuture<Void> startPluginsAsync() {
+        return completionOf(startPluginWaves());
+    }
+
+    /**
+     * Stops all plugins without waiting.
+     *
+     * @return a future that is completed when all waves are done
+     * @see #stopPluginWaves()
+     */
+    public CompletableFuture<Void> stopPluginsAsync() {
+        return completionOf(stopPluginWaves());
+    }
+
+    private void awaitWaves(List<PluginWave> waves) {
+        completionOf(waves).join();
+    }
+
+    private static CompletableFuture<Void> completionOf(List<PluginWave> waves) {
+        if (waves.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // waves are processed one after another
+        return waves.get(waves.size() - 1).getCompletion();
+    }
+
+    /**
+     * Sets the number of threads used to start and stop the plugins of a wave
+     * in parallel. Must be called before the first start or stop of plugins.
+     * Defaults to the number of available processors, but at least 4, as
+     * starting plugins usually waits for I/O rather than CPU. A value of 1 starts
+     * and stops one plugin after another.
+     *
+     * @param lifecycleThreads number of threads, at least 1
+     */
+    public void setLifecycleThreads(int lifecycleThreads) {
+        if (lifecycleThreads < 1) {
+            throw new IllegalArgumentException("lifecycleThreads must be at least 1");
         }
+        this.lifecycleThreads = lifecycleThreads;
+    }
+
+    /**
+     * Sets the time a single plugin may take to start or stop before the
+     * next wave goes on without it. The plugin's thread is not interrupted.
+     *
+     * @param pluginTimeout timeout in milliseconds, 0 to wait forever (default)
+     */
+    public void setPluginTimeout(long pluginTimeout) {
+        if (pluginTimeout < 0) {
+            throw new IllegalArgumentException("pluginTimeout must not be negative");
+        }
+        this.pluginTimeout = pluginTimeout;
+    }
+
+    /**
+     * Sets the number of worker threads used to load archives in parallel.
+     * Must be called before {@link #startLoading(boolean)}. Defaults to the
+     * number of available processors. A value of 1 loads all archives on the
+     * deployer thread.
+     *
+     * @param deployThreads number of worker threads, at least 1
+     */
+    public void setDeployThreads(int deployThreads) {
+        if (deployThreads < 1) {
+            throw new IllegalArgumentException("deployThreads must be at least 1");
+        }
+        this.deployThreads = deployThreads;
+    }
+
+    /**
+     * Enables hard links instead of copies for the deploy temp files of the
+     * archives, where the file system supports it. Must be called before
+     * {@link #startLoading(boolean)}. Disabled by default.
+     * <p>
+     * Only enable this if archives in the plugin folder are replaced by
+     * deleting or moving a new file into place, never by overwriting the
+     * existing file: A hard link shares the content with the original file.
+     *
+     * @param linkStaging true, to link instead of copy
+     */
+    public void setLinkStaging(boolean linkStaging) {
+        this.linkStaging = linkStaging;
+    }
+
+    /**
+     * Enables lazy activation of plugins. Must be called before
+     * {@link #startLoading(boolean)}. Disabled by default.
+     * <p>
+     * With lazy activation, deploying an archive only creates its class
+     * loader. A plugin class is loaded, instantiated and, if
+     * {@link #startPlugins()} has been called before, started on the first
+     * call of {@link PluginContainer#getPlugin()}. Errors in plugin classes
+     * then show up on first use instead of during deployment.
+     *
+     * @param lazyActivation true, to activate plugins on first use
+     */
+    public void setLazyActivation(boolean lazyActivation) {
+        this.lazyActivation = lazyActivation;
+    }
+
+    /**
+     * Enables hot redeploy of changed archives. Must be called before
+     * {@link #startLoading(boolean)}. Disabled by default.
+     * <p>
+     * Without hot redeploy, a changed archive is undeployed before its new
+     * version is loaded. With hot redeploy, the new version is loaded and
+     * instantiated next to the deployed one, then replaces it in the plugin
+     * registry in one step. Only then the old plugins are stopped. If the new
+     * version fails to load, the old one stays deployed. Classes that other
+     * archives already loaded from the old version are not affected.
+     *
+     * @param hotRedeploy true, to replace changed archives only when their
+     * new version is loaded
+     */
+    public void setHotRedeploy(boolean hotRedeploy) {
+        this.hotRedeploy = hotRedeploy;
+    }
+
+    /**
+     * Enables preloading of classes. Must be called before
+     * {@link #startLoading(boolean)}. Disabled by default.
+     * <p>
+     * When an archive is deployed, all its class files are read in one pass
+     * and, after the plugins have been created, all classes are defined, in
+     * parallel per package. This makes deploy slower, but the first use of a
+     * plugin does not have to load classes from the archive anymore. Takes
+     * more metaspace for classes that are never used. Ignored with lazy
+     * activation.
+     *
+     * @param preloadClasses true, to define all classes on deploy
+     */
+    public void setPreloadClasses(boolean preloadClasses) {
+        this.preloadClasses = preloadClasses;
+    }
+
+    /**
+     * Returns the leak detection for class loaders of undeployed archives
+     *
+     * @return the leak detector
+     */
+    public ClassLoaderLeakDetector getLeakDetector() {
+        return leakDetector;
+    }
+
+    /**
+     * Sets the time after which the class loader of an undeployed archive
+     * that is still reachable is logged as leaked. Defaults to 60 seconds.
+     *
+     * @param leakThreshold time in milliseconds
+     */
+    public void setLeakThreshold(long leakThreshold) {
+        leakDetector.setThreshold(leakThreshold);
+    }
+
+    /**
+     * Returns the metrics of deploy, class loading and plugin lifecycle.
+     * They are only recorded while enabled, see
+     * {@link #setMetricsEnabled(boolean)}.
+     *
+     * @return the metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Enables recording of metrics. Disabled by default. The class loading
+     * metrics are shared by all framework instances in the VM, they are
+     * recorded in the metrics of the instance created last.
+     *
+     * @param metricsEnabled true, to record metrics
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        metrics.setEnabled(metricsEnabled);
+    }
+
+    /**
+     * Skips filling the stack trace of the {@link ClassNotFoundException}s
+     * the plugin classloaders throw when a class is not found. Archives
+     * probe each other for classes a lot, so this saves time and garbage
+     * while classes are loaded, but a miss reported to plugin code has no
+     * stack trace anymore. Disabled by default.
+     * <p>
+     * The setting is static and applies to the whole VM, i.e. to all
+     * framework instances, as they share the classloader the archives are
+     * registered at. It can be changed at any time.
+     *
+     * @param stacklessClassMisses true, to skip the stack traces
+     * @see ClassMissException#setStackless(boolean)
+     */
+    public static void setStacklessClassMisses(boolean stacklessClassMisses) {
+        ClassMissException.setStackless(stacklessClassMisses);
     }
 
     public void setDeploymentListener(DeploymentListener deploymentListener) {
@@ -107,7 +392,7 @@ public class SimplePluginFramework {
     void doPostStart(PluginContainer plugincontainer) {
         if (getDeploymentListener() != null) {
             try {
-                getDeploymentListener().postStart(plugincontainer.getPlugin());
+                getDeploymentListener().postStart(plugincontainer.getInstance());
             } catch (Exception e) {
                 log.error("Error in deploymentlistener", e);
             }
@@ -117,7 +402,7 @@ public class SimplePluginFramework {
     void doPreStart(PluginContainer plugincontainer) {
         if (getDeploymentListener() != null) {
             try {
-                getDeploymentListener().preStart(plugincontainer.getPlugin());
+                getDeploymentListener().preStart(plugincontainer.getInstance());
             } catch (Exception e) {
                 log.error("Error in deploymentlistener", e);
             }
@@ -127,7 +412,7 @@ public class SimplePluginFramework {
     void doPostStop(PluginContainer plugincontainer) {
         if (getDeploymentListener() != null) {
             try {
-                getDeploymentListener().postStop(plugincontainer.getPlugin());
+                getDeploymentListener().postStop(plugincontainer.getInstance());
             } catch (Exception e) {
                 log.error("Error in deploymentlistener", e);
             }
@@ -137,7 +422,7 @@ public class SimplePluginFramework {
     void doPreStop(PluginContainer plugincontainer) {
         if (getDeploymentListener() != null) {
             try {
-                getDeploymentListener().preStop(plugincontainer.getPlugin());
+                getDeploymentListener().preStop(plugincontainer.getInstance());
             } catch (Exception e) {
                 log.error("Error in deploymentlistener", e);
             }
@@ -147,7 +432,7 @@ public class SimplePluginFramework {
     void doLoaded(PluginContainer plugincontainer) {
         if (getDeploymentListener() != null) {
             try {
-                getDeploymentListener().loaded(plugincontainer.getPlugin());
+                getDeploymentListener().loaded(plugincontainer.getInstance());
             } catch (Exception e) {
                 log.error("Error in deploymentlistener", e);
             }
@@ -157,6 +442,38 @@ public class SimplePluginFramework {
     long getDeployDelay() {
         return deployDelay;
     }
+
+    boolean isLinkStaging() {
+        return linkStaging;
+    }
+
+    int getDeployThreads() {
+        return deployThreads;
+    }
+
+    boolean isPreloadClasses() {
+        return preloadClasses;
+    }
+
+    boolean isHotRedeploy() {
+        return hotRedeploy;
+    }
+
+    boolean isLazyActivation() {
+        return lazyActivation;
+    }
+
+    int getLifecycleThreads() {
+        return lifecycleThreads;
+    }
+
+    long getPluginTimeout() {
+        return pluginTimeout;
+    }
+
+    DetectionMode getDetectionMode() {
+        return detectionMode;
+    }
     
     
 
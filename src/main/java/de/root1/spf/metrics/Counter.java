@@ -0,0 +1,65 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Does nothing while metrics are disabled.
+ *
+ * @author ACHR
+ */
+public class Counter {
+
+    private final Metrics metrics;
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    Counter(Metrics metrics, String name) {
+        this.metrics = metrics;
+        this.name = name;
+    }
+
+    public void increment() {
+        if (metrics.enabled) {
+            count.increment();
+        }
+    }
+
+    public void add(long delta) {
+        if (metrics.enabled) {
+            count.add(delta);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + "=" + getCount();
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the counters and timers of a framework instance. Counters
+ * and timers are created once and then updated without locks or
+ * allocations. While disabled, which is the default, updating them costs a
+ * single field read.
+ *
+ * @author ACHR
+ */
+public class Metrics {
+
+    private final static Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    /**
+     * Read on every update, so kept as plain field access for the metric
+     * classes
+     */
+    volatile boolean enabled;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reporterExecutor;
+    private ObjectName objectName;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param name name of the counter
+     * @return the counter with the given name, created on first call
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter(this, n));
+    }
+
+    /**
+     * @param name name of the timer
+     * @return the timer with the given name, created on first call
+     */
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> new Timer(this, n));
+    }
+
+    /**
+     * @return all counters, sorted by name
+     */
+    public List<Counter> getCounters() {
+        return Collections.unmodifiableList(new ArrayList<>(new TreeMap<>(counters).values()));
+    }
+
+    /**
+     * @return all timers, sorted by name
+     */
+    public List<Timer> getTimers() {
+        return Collections.unmodifiableList(new ArrayList<>(new TreeMap<>(timers).values()));
+    }
+
+    /**
+     * Calls the given reporter periodically on a daemon thread
+     *
+     * @param reporter the reporter
+     * @param periodMillis time between two reports in milliseconds
+     */
+    public synchronized void addReporter(final MetricsReporter reporter, long periodMillis) {
+        if (reporterExecutor == null) {
+            reporterExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "SPF-MetricsReporter");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        reporterExecutor.scheduleAtFixedRate(() -> {
+            try {
+                reporter.report(this);
+            } catch (Throwable t) {
+                LOG.error("Error in metrics reporter " + reporter, t);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers the metrics as MBean at the platform MBean server. Each
+     * counter is exposed as attribute with its name, each timer as
+     * attributes with its name and the suffixes <code>.count</code>,
+     * <code>.meanMillis</code>, <code>.maxMillis</code> and
+     * <code>.p99Millis</code>.
+     *
+     * @param name value of the <code>name</code> key of the object name
+     */
+    public synchronized void registerMBean(String name) {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            ObjectName on = new ObjectName("de.root1.spf:type=Metrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(on)) {
+                server.registerMBean(new MetricsMBean(this), on);
+                objectName = on;
+                LOG.info("Registered metrics MBean {}", on);
+            }
+        } catch (JMException ex) {
+            LOG.warn("Cannot register metrics MBean: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the MBean and stops the reporters
+     */
+    public synchronized void close() {
+        if (reporterExecutor != null) {
+            reporterExecutor.shutdown();
+            reporterExecutor = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ex) {
+                LOG.warn("Cannot unregister metrics MBean: {}", ex.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+}
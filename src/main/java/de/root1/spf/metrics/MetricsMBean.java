@@ -0,0 +1,137 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read only view of {@link Metrics} for JMX. The attributes are determined
+ * on each request, so that metrics created later show up as well.
+ *
+ * @author ACHR
+ */
+class MetricsMBean implements DynamicMBean {
+
+    private static final String COUNT = ".count";
+    private static final String MEAN = ".meanMillis";
+    private static final String MAX = ".maxMillis";
+    private static final String P99 = ".p99Millis";
+
+    private final Metrics metrics;
+
+    MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if ("Enabled".equals(attribute)) {
+            return metrics.isEnabled();
+        }
+        for (Counter counter : metrics.getCounters()) {
+            if (counter.getName().equals(attribute)) {
+                return counter.getCount();
+            }
+        }
+        for (Timer timer : metrics.getTimers()) {
+            String name = timer.getName();
+            if (attribute.equals(name + COUNT)) {
+                return timer.getCount();
+            } else if (attribute.equals(name + MEAN)) {
+                return timer.getMean(TimeUnit.MILLISECONDS);
+            } else if (attribute.equals(name + MAX)) {
+                return timer.getMax(TimeUnit.MILLISECONDS);
+            } else if (attribute.equals(name + P99)) {
+                return timer.getPercentile(0.99, TimeUnit.MILLISECONDS);
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        if ("Enabled".equals(attribute.getName())) {
+            metrics.setEnabled((Boolean) attribute.getValue());
+            return;
+        }
+        throw new AttributeNotFoundException(attribute.getName() + " is read only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException ex) {
+                // not part of the result
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        AttributeList result = new AttributeList();
+        for (Attribute attribute : attributes.asList()) {
+            try {
+                setAttribute(attribute);
+                result.add(attribute);
+            } catch (AttributeNotFoundException ex) {
+                // not part of the result
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "Whether metrics are recorded", true, true, true));
+        for (Counter counter : metrics.getCounters()) {
+            attributes.add(new MBeanAttributeInfo(counter.getName(), "long", "Counter", true, false, false));
+        }
+        for (Timer timer : metrics.getTimers()) {
+            String name = timer.getName();
+            attributes.add(new MBeanAttributeInfo(name + COUNT, "long", "Number of recorded durations", true, false, false));
+            attributes.add(new MBeanAttributeInfo(name + MEAN, "double", "Mean duration in milliseconds", true, false, false));
+            attributes.add(new MBeanAttributeInfo(name + MAX, "long", "Maximum duration in milliseconds", true, false, false));
+            attributes.add(new MBeanAttributeInfo(name + P99, "long", "Upper bound of the 99th percentile in milliseconds", true, false, false));
+        }
+        return new MBeanInfo(Metrics.class.getName(), "Simple Plugin Framework metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+    }
+
+}
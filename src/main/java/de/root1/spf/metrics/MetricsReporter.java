@@ -0,0 +1,38 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.metrics;
+
+/**
+ * Receives the metrics periodically, e.g. to log them or to forward them
+ * to a monitoring system.
+ *
+ * @author ACHR
+ * @see Metrics#addReporter(MetricsReporter, long)
+ */
+public interface MetricsReporter {
+
+    /**
+     * Called periodically on a reporter thread
+     *
+     * @param metrics the metrics to report
+     */
+    public void report(Metrics metrics);
+
+}
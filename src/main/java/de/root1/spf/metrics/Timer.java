@@ -0,0 +1,169 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count, total, maximum and a histogram of durations. The histogram has
+ * one bucket per power of two nanoseconds. Does nothing while metrics are
+ * disabled.
+ * <p>
+ * Usage:
+ * <pre>
+ * long start = timer.start();
+ * ...
+ * timer.stop(start);
+ * </pre>
+ *
+ * @author ACHR
+ */
+public class Timer {
+
+    private static final int BUCKETS = 64;
+
+    private final Metrics metrics;
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    Timer(Metrics metrics, String name) {
+        this.metrics = metrics;
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return start time to pass to {@link #stop(long)}, 0 if metrics are
+     * disabled
+     */
+    public long start() {
+        return metrics.enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since the given start
+     *
+     * @param start value returned by {@link #start()}
+     * @return the recorded duration in nanoseconds, 0 if nothing was recorded
+     */
+    public long stop(long start) {
+        if (start == 0) {
+            return 0;
+        }
+        long nanos = System.nanoTime() - start;
+        record(nanos);
+        return nanos;
+    }
+
+    /**
+     * Records a duration
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (!metrics.enabled) {
+            return;
+        }
+        nanos = Math.max(0, nanos);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        buckets[bucketOf(nanos)].increment();
+    }
+
+    static int bucketOf(long nanos) {
+        return nanos == 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos) - 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal(TimeUnit unit) {
+        return unit.convert(totalNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public double getMean(TimeUnit unit) {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getTotal(TimeUnit.NANOSECONDS) / n / unit.toNanos(1);
+    }
+
+    /**
+     * Returns an upper bound of the given percentile, taken from the
+     * histogram. Precise to a factor of two.
+     *
+     * @param percentile between 0 and 1, like 0.99
+     * @param unit the time unit of the result
+     * @return the upper bound of the bucket that contains the percentile
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        long[] counts = getHistogram();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long upperBound = i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+                return unit.convert(Math.min(upperBound, maxNanos.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return getMax(unit);
+    }
+
+    /**
+     * @return counts per bucket. Bucket i holds durations from 2^i to
+     * 2^(i+1)-1 nanoseconds, bucket 0 also holds 0.
+     */
+    public long[] getHistogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(count=" + getCount() + ", mean=" + String.format("%.3f", getMean(TimeUnit.MICROSECONDS) / 1000) + "ms, max=" + getMax(TimeUnit.MILLISECONDS) + "ms)";
+    }
+
+}
@@ -0,0 +1,241 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Minimal reader for the structure of a java class file. Reads the class
+ * name, super class, implemented interfaces and all classes referenced in the
+ * constant pool, without loading the class.
+ *
+ * @author achristian
+ */
+public class ClassFileInfo {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACEMETHODREF = 11;
+    private static final int CONSTANT_NAMEANDTYPE = 12;
+    private static final int CONSTANT_METHODHANDLE = 15;
+    private static final int CONSTANT_METHODTYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKEDYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    private final Set<String> referencedClasses;
+
+    private ClassFileInfo(String name, String superName, List<String> interfaces, Set<String> referencedClasses) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.referencedClasses = referencedClasses;
+    }
+
+    /**
+     * Reads the class file structure from the given bytes
+     *
+     * @param classBytes the content of a .class file
+     * @return the class file info
+     * @throws IOException if the bytes are not a valid class file
+     */
+    public static ClassFileInfo read(byte[] classBytes) throws IOException {
+        return read(new ByteArrayInputStream(classBytes));
+    }
+
+    /**
+     * Reads the class file structure from the given stream. The stream is not
+     * closed and only read up to the list of interfaces.
+     *
+     * @param in stream with the content of a .class file
+     * @return the class file info
+     * @throws IOException if the stream does not contain a valid class file
+     */
+    public static ClassFileInfo read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        data.readUnsignedShort(); // minor version
+        data.readUnsignedShort(); // major version
+
+        int count = data.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNameIndex = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = data.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndex[i] = data.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHODTYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    data.skipBytes(2);
+                    break;
+                case CONSTANT_METHODHANDLE:
+                    data.skipBytes(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACEMETHODREF:
+                case CONSTANT_NAMEANDTYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKEDYNAMIC:
+                    data.skipBytes(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    data.skipBytes(8);
+                    i++; // takes two entries
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+        }
+
+        Set<String> referencedClasses = new LinkedHashSet<>();
+        for (int i = 1; i < count; i++) {
+            if (classNameIndex[i] != 0) {
+                String className = toClassName(utf8[classNameIndex[i]]);
+                if (className != null) {
+                    referencedClasses.add(className);
+                }
+            }
+        }
+
+        data.readUnsignedShort(); // access flags
+        String name = className(utf8, classNameIndex, data.readUnsignedShort());
+        String superName = className(utf8, classNameIndex, data.readUnsignedShort());
+        int interfaceCount = data.readUnsignedShort();
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(className(utf8, classNameIndex, data.readUnsignedShort()));
+        }
+        referencedClasses.remove(name);
+
+        return new ClassFileInfo(name, superName,
+                Collections.unmodifiableList(interfaces),
+                Collections.unmodifiableSet(referencedClasses));
+    }
+
+    private static String className(String[] utf8, int[] classNameIndex, int index) throws IOException {
+        if (index == 0) {
+            return null;
+        }
+        if (index >= classNameIndex.length || classNameIndex[index] == 0) {
+            throw new IOException("Invalid class reference " + index);
+        }
+        return toClassName(utf8[classNameIndex[index]]);
+    }
+
+    /**
+     * Converts an internal name or array descriptor to a binary class name.
+     *
+     * @return the class name, or <code>null</code> for arrays of primitives
+     */
+    private static String toClassName(String internalName) {
+        if (internalName == null) {
+            return null;
+        }
+        if (internalName.startsWith("[")) {
+            int start = internalName.lastIndexOf('[') + 1;
+            if (internalName.charAt(start) != 'L') {
+                return null;
+            }
+            internalName = internalName.substring(start + 1, internalName.length() - 1);
+        }
+        return internalName.replace('/', '.');
+    }
+
+    /**
+     * Returns the package name of the given binary class name
+     *
+     * @param className binary class name
+     * @return package name, empty string for the default package
+     */
+    public static String getPackageName(String className) {
+        int idx = className.lastIndexOf('.');
+        return idx == -1 ? "" : className.substring(0, idx);
+    }
+
+    /**
+     * @return binary name of the class
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return binary name of the super class, <code>null</code> for
+     * <code>java.lang.Object</code>
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * @return binary names of the directly implemented interfaces
+     */
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * @return binary names of all classes referenced by this class, excluding
+     * the class itself
+     */
+    public Set<String> getReferencedClasses() {
+        return referencedClasses;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassFileInfo{" + "name=" + name + ", superName=" + superName + ", interfaces=" + interfaces + '}';
+    }
+
+}
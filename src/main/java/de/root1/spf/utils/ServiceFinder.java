@@ -19,25 +19,25 @@
  */
 package de.root1.spf.utils;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.JarURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
 
 /**
  * @author achristian
  */
 public class ServiceFinder {
 
-    private final String path = "META-INF/services/";
+    private static final String PATH = "META-INF/services/";
     private final ClassLoader classLoader;
-    private URL url;
+    private final File file;
 
     public ServiceFinder(ClassLoader classLoader, File f) {
         if (f == null) {
@@ -48,11 +48,7 @@ public class ServiceFinder {
             classLoader = Thread.currentThread().getContextClassLoader();
         }
         this.classLoader = classLoader;
-
-        try {
-            this.url = new URL("jar", "", -1, f.toURI().toURL().toString() + "!/");
-        } catch (MalformedURLException e) {
-        }
+        this.file = f;
     }
 
     /**
@@ -65,8 +61,7 @@ public class ServiceFinder {
      */
     public List<Class> getServiceImplementations(Class interfaceClass) throws IOException, ClassNotFoundException {
         List<Class> implementations = new ArrayList<>();
-        List<String> strings = findAllStrings(interfaceClass.getName());
-        for (String className : strings) {
+        for (String className : getServiceClassNames(interfaceClass.getName())) {
             Class impl = classLoader.loadClass(className);
             if (!interfaceClass.isAssignableFrom(impl)) {
                 throw new ClassCastException("Class not of type: " + interfaceClass.getName());
@@ -75,112 +70,52 @@ public class ServiceFinder {
         }
         return implementations;
     }
-    
-    private List<String> findAllStrings(String uri) throws IOException {
-        String fulluri = path + uri;
-
-        List<String> strings = new ArrayList<String>();
-
-        List<URL> resources = getResources(fulluri);
-        for (URL url : resources) {
-            String string = readContents(url);
-            strings.add(string);
-        }
-        return strings;
-    }
-
-    private String readContents(URL resource) throws IOException {
-        InputStream in = resource.openStream();
-        BufferedInputStream reader = null;
-        StringBuffer sb = new StringBuffer();
-
-        try {
-            reader = new BufferedInputStream(in);
 
-            int b = reader.read();
-            while (b != -1) {
-                sb.append((char) b);
-                b = reader.read();
+    /**
+     * Reads the names of the classes listed in the service file for the given
+     * interface, without loading them.
+     *
+     * @param interfaceName binary name of the service interface
+     * @return the implementation class names, empty if the archive has no
+     * service file for the interface
+     * @throws IOException if the archive can't be read
+     */
+    public List<String> getServiceClassNames(String interfaceName) throws IOException {
+        try (JarFile jarFile = new JarFile(file, false)) {
+            ZipEntry entry = jarFile.getEntry(PATH + interfaceName);
+            if (entry == null) {
+                return new ArrayList<>();
             }
-
-            return sb.toString().trim();
-        } finally {
-            try {
-                in.close();
-                reader.close();
-            } catch (Exception e) {
+            try (InputStream in = jarFile.getInputStream(entry)) {
+                return parseServiceFile(in);
             }
         }
     }
 
-    private List<URL> getResources(String fulluri) throws IOException {
-        List<URL> resources = new ArrayList<>();
-        URL resource = findResource(fulluri, url);
-        if (resource != null) {
-            resources.add(resource);
-        }
-        return resources;
-    }
-
-    private URL findResource(String resourceName, URL searchURL) {
-
-        try {
-            URL jarURL = ((JarURLConnection) searchURL.openConnection()).getJarFileURL();
-            JarFile jarFile;
-            JarURLConnection juc;
-            try {
-                juc = (JarURLConnection) new URL("jar", "", jarURL.toExternalForm() + "!/").openConnection();
-                jarFile = juc.getJarFile();
-            } catch (IOException e) {
-                throw e;
+    /**
+     * Parses a service provider configuration file as specified by
+     * {@link java.util.ServiceLoader}: One class name per line, UTF-8
+     * encoded, '#' starts a comment.
+     *
+     * @param in stream with the content of the service file
+     * @return the class names, in order of the file
+     * @throws IOException if the stream can't be read
+     */
+    public static List<String> parseServiceFile(InputStream in) throws IOException {
+        List<String> classNames = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int commentIdx = line.indexOf('#');
+            if (commentIdx != -1) {
+                line = line.substring(0, commentIdx);
             }
-
-            try {
-                juc = (JarURLConnection) new URL("jar", "", jarURL.toExternalForm() + "!/").openConnection();
-                jarFile = juc.getJarFile();
-                String entryName;
-                if (searchURL.getFile().endsWith("!/")) {
-                    entryName = resourceName;
-                } else {
-                    String file = searchURL.getFile();
-                    int sepIdx = file.lastIndexOf("!/");
-                    if (sepIdx == -1) {
-                        // Invalid URL
-                        return null;
-                    }
-                    sepIdx += 2;
-                    StringBuffer sb = new StringBuffer(file.length() - sepIdx + resourceName.length());
-                    sb.append(file.substring(sepIdx));
-                    sb.append(resourceName);
-                    entryName = sb.toString();
-                }
-                if (entryName.equals("META-INF/") && jarFile.getEntry("META-INF/MANIFEST.MF") != null) {
-                    return createResourceURL(searchURL, "META-INF/MANIFEST.MF");
-                }
-                if (jarFile.getEntry(entryName) != null) {
-                    return createResourceURL(searchURL, resourceName);
-                }
-            } finally {
-                if (!juc.getUseCaches()) {
-                    try {
-                        jarFile.close();
-                    } catch (Exception e) {
-                    }
-                }
+            line = line.trim();
+            if (!line.isEmpty() && !classNames.contains(line)) {
+                classNames.add(line);
             }
-
-        } catch (MalformedURLException e) {
-        } catch (IOException e) {
-        } catch (SecurityException e) {
         }
-        return null;
+        return classNames;
     }
 
-    private URL createResourceURL(URL base, String name) throws MalformedURLException {
-        StringBuffer sb = new StringBuffer(base.getFile().length() + name.length());
-        sb.append(base.getFile());
-        sb.append(name);
-        String file = sb.toString();
-        return new URL(base.getProtocol(), base.getHost(), base.getPort(), file, null);
-    }
 }
@@ -37,8 +37,12 @@ public class Utils {
         FileChannel outChannel = new
             FileOutputStream(out).getChannel();
         try {
-            inChannel.transferTo(0, inChannel.size(),
-                    outChannel);
+            // transferTo() may transfer less than requested
+            long size = inChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += inChannel.transferTo(position, size - position, outChannel);
+            }
         }
         catch (IOException e) {
             throw e;
@@ -0,0 +1,168 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spf;
+
+import de.root1.spftest.support.PluginJarBuilder;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Level ordering and cycle handling of {@link DeployPlan}
+ */
+public class DeployPlanTest {
+
+    private File folder;
+    private Deployer deployer;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("spf-plan").toFile();
+        deployer = new Deployer(new SimplePluginFramework(folder, 60000), folder);
+    }
+
+    @After
+    public void tearDown() {
+        PluginJarGenerator.delete(folder);
+    }
+
+    /**
+     * Creates an archive with package plan.[name] that imports the packages
+     * of the given archives via manifest
+     */
+    private Archive archive(String name, String... imports) throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder().addPlugin("plan." + name + ".Plugin", name);
+        if (imports.length > 0) {
+            List<String> packages = new ArrayList<>();
+            for (String i : imports) {
+                packages.add("plan." + i);
+            }
+            builder.setManifestAttribute(ArchiveDependencies.IMPORT_PACKAGE_HEADER, String.join(",", packages));
+        }
+        return new Archive(deployer, builder.build(new File(folder, name + ".jar")));
+    }
+
+    private static List<List<String>> names(DeployPlan plan) {
+        List<List<String>> levels = new ArrayList<>();
+        for (DeployPlan.Level level : plan.getLevels()) {
+            List<String> names = new ArrayList<>();
+            for (Archive archive : level.getArchives()) {
+                names.add(archive.getName().replace(".jar", ""));
+            }
+            levels.add(names);
+        }
+        return levels;
+    }
+
+    @Test
+    public void testLevelsFollowDependencies() throws Exception {
+        Archive a = archive("a");
+        Archive b = archive("b", "a");
+        Archive c = archive("c", "a");
+        Archive d = archive("d", "b", "c");
+        Archive e = archive("e");
+
+        DeployPlan plan = DeployPlan.create(Arrays.asList(d, c, b, a, e), Collections.emptyList(), getClass().getClassLoader());
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "e"), Arrays.asList("c", "b"), Arrays.asList("d")), names(plan));
+        for (DeployPlan.Level level : plan.getLevels()) {
+            assertFalse(level.isCyclic());
+        }
+    }
+
+    @Test
+    public void testLongestPathGivesLevel() throws Exception {
+        Archive a = archive("a");
+        Archive b = archive("b", "a");
+        // depends on a directly and via b, so it has to wait for b
+        Archive c = archive("c", "a", "b");
+
+        DeployPlan plan = DeployPlan.create(Arrays.asList(c, b, a), Collections.emptyList(), getClass().getClassLoader());
+
+        assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b"), Arrays.asList("c")), names(plan));
+    }
+
+    @Test
+    public void testCycleIsOneLevel() throws Exception {
+        Archive x = archive("x", "y");
+        Archive y = archive("y", "x");
+        Archive z = archive("z", "x");
+        Archive w = archive("w");
+
+        DeployPlan plan = DeployPlan.create(Arrays.asList(z, x, y, w), Collections.emptyList(), getClass().getClassLoader());
+
+        assertEquals(Arrays.asList(Arrays.asList("x", "y", "w"), Arrays.asList("z")), names(plan));
+        assertTrue(plan.getLevels().get(0).isCyclic());
+        assertFalse(plan.getLevels().get(1).isCyclic());
+    }
+
+    @Test
+    public void testReferencedPackagesAreDependencies() throws Exception {
+        File baseJar = new PluginJarBuilder()
+                .addClass("plan.base.Base", "package plan.base; public class Base { public static void touch() { } }")
+                .addPlugin("plan.base.Plugin", "base")
+                .build(new File(folder, "base.jar"));
+        File userJar = new PluginJarBuilder()
+                .addToClassPath(baseJar)
+                .addPlugin("plan.user.Plugin", "user", "plan.base.Base.touch();", "", "")
+                .build(new File(folder, "user.jar"));
+        Archive base = new Archive(deployer, baseJar);
+        Archive user = new Archive(deployer, userJar);
+
+        DeployPlan plan = DeployPlan.create(Arrays.asList(user, base), Collections.emptyList(), getClass().getClassLoader());
+
+        assertEquals(Arrays.asList(Arrays.asList("base"), Arrays.asList("user")), names(plan));
+    }
+
+    @Test
+    public void testPluginClassOfOtherArchiveIsDependency() throws Exception {
+        Archive impl = archive("impl");
+        Archive lister = new Archive(deployer, new PluginJarBuilder()
+                .addService("plan.impl.Plugin")
+                .build(new File(folder, "lister.jar")));
+        assertEquals(Arrays.asList("plan.impl.Plugin"), lister.getInfo().getMissingPluginClasses());
+
+        DeployPlan plan = DeployPlan.create(Arrays.asList(lister, impl), Collections.emptyList(), getClass().getClassLoader());
+
+        assertEquals(Arrays.asList(Arrays.asList("impl"), Arrays.asList("lister")), names(plan));
+    }
+
+    @Test
+    public void testDeployedProviderIsNoLevel() throws Exception {
+        Archive a = archive("a");
+        Archive b = archive("b", "a");
+
+        DeployPlan plan = DeployPlan.create(Arrays.asList(b), Arrays.asList(a), getClass().getClassLoader());
+
+        assertEquals(Arrays.asList(Arrays.asList("b")), names(plan));
+    }
+
+}
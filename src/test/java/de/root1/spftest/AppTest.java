@@ -21,8 +21,10 @@ package de.root1.spftest;
 
 import de.root1.spf.PluginContainer;
 import de.root1.spf.SimplePluginFramework;
+import de.root1.spftest.support.PluginJarGenerator;
 import java.io.File;
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
 
 /**
@@ -31,11 +33,17 @@ import java.util.List;
 public class AppTest {
 
     @org.junit.Test
-    public void testSpfStart() throws UnsupportedEncodingException {
-        SimplePluginFramework spf = new SimplePluginFramework(new File ("./plugins"), 2000);
-        spf.startLoading(true);
-        List<PluginContainer> pluginContainerList = spf.getPluginContainerList();
-        System.out.println(pluginContainerList);
+    public void testSpfStart() throws IOException, InterruptedException {
+        File folder = Files.createTempDirectory("spf-app").toFile();
+        SimplePluginFramework spf = new SimplePluginFramework(folder, 2000);
+        try {
+            spf.startLoading(true);
+            List<PluginContainer> pluginContainerList = spf.getPluginContainerList();
+            System.out.println(pluginContainerList);
+        } finally {
+            spf.shutdown();
+            PluginJarGenerator.delete(folder);
+        }
         
 //        try {
 //            Thread.sleep(20000);
@@ -0,0 +1,124 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest;
+
+import de.root1.spf.ArchiveClassLoader;
+import de.root1.spf.DelegatingArchiveClassLoader;
+import de.root1.spftest.support.PluginJarBuilder;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Caching of class and resource names that are not found, while archives are
+ * added concurrently
+ */
+public class DelegatingArchiveClassLoaderTest {
+
+    private static final int ROUNDS = 50;
+    private static final int LOOKUP_THREADS = 3;
+
+    private File folder;
+    private File archive;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("spf-dacl").toFile();
+        archive = new PluginJarBuilder()
+                .addClass("race.Target", "package race; public class Target { }")
+                .addPlugin("race.Plugin", "race")
+                .build(new File(folder, "race.jar"));
+    }
+
+    @After
+    public void tearDown() {
+        PluginJarGenerator.delete(folder);
+    }
+
+    @Test
+    public void testMissIsForgottenWhenArchiveIsAdded() throws Exception {
+        DelegatingArchiveClassLoader dacl = new DelegatingArchiveClassLoader(getClass().getClassLoader());
+        try {
+            dacl.loadClass("race.Target");
+            throw new AssertionError("Class found without archive");
+        } catch (ClassNotFoundException expected) {
+        }
+        assertNull(dacl.getResource("race/Target.class"));
+
+        ArchiveClassLoader acl = new ArchiveClassLoader(archive, dacl);
+        dacl.addArchiveClassLoader(acl);
+        assertNotNull(dacl.loadClass("race.Target"));
+        assertNotNull(dacl.getResource("race/Target.class"));
+        acl.close();
+    }
+
+    @Test
+    public void testMissRacingWithAddArchive() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            final DelegatingArchiveClassLoader dacl = new DelegatingArchiveClassLoader(getClass().getClassLoader());
+            final AtomicBoolean stop = new AtomicBoolean();
+            final CountDownLatch running = new CountDownLatch(LOOKUP_THREADS);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < LOOKUP_THREADS; t++) {
+                Thread thread = new Thread(() -> {
+                    running.countDown();
+                    while (!stop.get()) {
+                        try {
+                            dacl.loadClass("race.Target");
+                        } catch (ClassNotFoundException ex) {
+                            // not added yet
+                        }
+                        dacl.getResource("race/Target.class");
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            running.await();
+
+            ArchiveClassLoader acl = new ArchiveClassLoader(archive, dacl);
+            dacl.addArchiveClassLoader(acl);
+            try {
+                // a miss recorded by a lookup that started before the add must not hide the archive
+                assertNotNull(dacl.loadClass("race.Target"));
+                assertNotNull(dacl.getResource("race/Target.class"));
+            } finally {
+                stop.set(true);
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+            assertNotNull(dacl.loadClass("race.Target"));
+            assertNotNull(dacl.getResource("race/Target.class"));
+            acl.close();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest;
+
+import de.root1.spf.PluginContainer;
+import de.root1.spf.SimplePluginFramework;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Deploys a larger number of generated, chained archives
+ */
+public class DeployScaleTest {
+
+    private static final int ARCHIVES = 50;
+
+    private File folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("spf-scale").toFile();
+        PluginJarGenerator generator = new PluginJarGenerator();
+        generator.setArchiveCount(ARCHIVES);
+        generator.setPluginsPerArchive(2);
+        generator.setHelperClassesPerArchive(5);
+        generator.setResourcesPerArchive(3);
+        generator.setDependencies(true);
+        generator.generate(folder);
+    }
+
+    @After
+    public void tearDown() {
+        PluginJarGenerator.delete(folder);
+    }
+
+    @Test
+    public void testDeployChainedArchives() throws Exception {
+        SimplePluginFramework spf = new SimplePluginFramework(folder, 60000);
+        spf.startLoading(true);
+        try {
+            List<PluginContainer> plugins = spf.getPluginContainerList();
+            assertEquals(ARCHIVES * 2, plugins.size());
+            assertNotNull(spf.getPluginRegistry().getPluginById(PluginJarGenerator.getPluginId(ARCHIVES, 2)));
+            spf.startPlugins();
+            spf.stopPlugins();
+        } finally {
+            spf.shutdown();
+        }
+        assertEquals(0, spf.getPluginRegistry().getPlugins().size());
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest;
+
+import de.root1.spf.FileList;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Changes reported by {@link FileList#diff(FileList)}
+ */
+public class FileListTest {
+
+    private File folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("spf-filelist").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        PluginJarGenerator.delete(folder);
+    }
+
+    private File write(String name, String content, long lastModified) throws Exception {
+        File file = new File(folder, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+    @Test
+    public void testNoPreviousListReportsAllAdded() throws Exception {
+        write("b.jar", "b", 10000);
+        write("a.jar", "a", 10000);
+        new File(folder, "tmp").mkdir();
+
+        FileList.Diff diff = new FileList(folder.listFiles()).diff(null);
+
+        assertEquals(Arrays.asList("a.jar", "b.jar"), diff.getAdded());
+        assertEquals(Collections.emptyList(), diff.getRemoved());
+        assertEquals(Collections.emptyList(), diff.getModified());
+    }
+
+    @Test
+    public void testAddedRemovedModified() throws Exception {
+        write("keep.jar", "keep", 10000);
+        write("gone.jar", "gone", 10000);
+        write("size.jar", "size", 10000);
+        File touched = write("touched.jar", "touched", 10000);
+        FileList previous = new FileList(folder.listFiles());
+
+        new File(folder, "gone.jar").delete();
+        write("new.jar", "new", 10000);
+        write("size.jar", "size changed", 10000);
+        touched.setLastModified(20000);
+        FileList current = new FileList(folder.listFiles());
+
+        FileList.Diff diff = current.diff(previous);
+        assertEquals(Arrays.asList("new.jar"), diff.getAdded());
+        assertEquals(Arrays.asList("gone.jar"), diff.getRemoved());
+        assertEquals(Arrays.asList("size.jar", "touched.jar"), diff.getModified());
+        assertTrue(previous.diff(previous).isEmpty());
+        assertTrue(current.diff(new FileList(folder.listFiles())).isEmpty());
+    }
+
+}
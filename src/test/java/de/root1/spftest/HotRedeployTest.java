@@ -0,0 +1,122 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest;
+
+import de.root1.spf.DetectionMode;
+import de.root1.spf.PluginContainer;
+import de.root1.spf.PluginInterface;
+import de.root1.spf.SimplePluginFramework;
+import de.root1.spf.metrics.Counter;
+import de.root1.spftest.support.PluginJarBuilder;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hot redeploy of a changed archive
+ */
+public class HotRedeployTest {
+
+    private File folder;
+    private File archive;
+    private File staging;
+    private SimplePluginFramework spf;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("spf-hot").toFile();
+        staging = Files.createTempDirectory("spf-hot-staging").toFile();
+        archive = new File(folder, "hot.jar");
+        new PluginJarBuilder()
+                .addClass("hot.Helper", "package hot; public class Helper { }")
+                .addPlugin("hot.Plugin", "hot")
+                .build(archive);
+        archive.setLastModified(10000);
+
+        spf = new SimplePluginFramework(folder, 100, DetectionMode.POLLING);
+        spf.setHotRedeploy(true);
+        spf.setMetricsEnabled(true);
+        spf.startLoading(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        spf.shutdown();
+        PluginJarGenerator.delete(folder);
+        PluginJarGenerator.delete(staging);
+    }
+
+    /**
+     * Replaces the archive in one step, so that the deployer never sees a
+     * partially written file
+     */
+    private void replace(PluginJarBuilder builder, long lastModified) throws Exception {
+        File temp = new File(staging, archive.getName());
+        builder.build(temp);
+        temp.setLastModified(lastModified);
+        Files.move(temp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Test
+    public void testFailedNewVersionKeepsOldVersion() throws Exception {
+        PluginContainer deployed = spf.getPluginRegistry().getPluginById("hot");
+        assertNotNull(deployed);
+        PluginInterface plugin = deployed.getPlugin();
+
+        replace(new PluginJarBuilder()
+                .addPlugin("hot.Plugin", "hot", "throw new IllegalStateException(\"broken\");", "", ""), 20000);
+        Counter failed = spf.getMetrics().counter("deploy.archives.failed");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (failed.getCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue("New version did not fail", failed.getCount() > 0);
+
+        // old version is still registered and its classloader still open
+        assertSame(deployed, spf.getPluginRegistry().getPluginById("hot"));
+        assertEquals(1, spf.getPluginContainerList().size());
+        assertNotNull(Class.forName("hot.Helper", true, plugin.getClass().getClassLoader()));
+
+        // a working version replaces it
+        replace(new PluginJarBuilder()
+                .addPlugin("hot.Plugin", "hot")
+                .addClass("hot.Other", "package hot; public class Other { }"), 30000);
+        PluginContainer replacement = deployed;
+        deadline = System.currentTimeMillis() + 10000;
+        while (replacement == deployed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            replacement = spf.getPluginRegistry().getPluginById("hot");
+        }
+        assertNotSame(deployed, replacement);
+        assertNotSame(plugin.getClass(), replacement.getPlugin().getClass());
+        assertEquals(1, spf.getPluginContainerList().size());
+    }
+
+}
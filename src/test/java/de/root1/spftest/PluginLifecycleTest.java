@@ -0,0 +1,161 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest;
+
+import de.root1.spf.PluginContainer;
+import de.root1.spf.PluginWave;
+import de.root1.spf.SimplePluginFramework;
+import de.root1.spftest.support.PluginJarBuilder;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Starting and stopping plugins in waves by priority
+ */
+public class PluginLifecycleTest {
+
+    /**
+     * Start and stop events recorded by the test plugins
+     */
+    public static final List<String> EVENTS = Collections.synchronizedList(new ArrayList<>());
+
+    private File folder;
+    private SimplePluginFramework spf;
+
+    @Before
+    public void setUp() throws Exception {
+        EVENTS.clear();
+        folder = Files.createTempDirectory("spf-lifecycle").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (spf != null) {
+            spf.shutdown();
+        }
+        PluginJarGenerator.delete(folder);
+    }
+
+    /**
+     * Builds an archive with plugins that record their start and stop and
+     * sleep while starting
+     */
+    private void archive(String name, String priority, long startMillis, String... plugins) throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder();
+        for (String plugin : plugins) {
+            String record = PluginLifecycleTest.class.getName() + ".EVENTS.add(\"%s:" + plugin + "\");";
+            String start = "try { Thread.sleep(" + startMillis + "); } catch (InterruptedException e) { }" + String.format(record, "start");
+            builder.addPlugin("lifecycle." + name + "." + plugin.toUpperCase(), plugin, "", start, String.format(record, "stop"));
+        }
+        if (priority != null) {
+            builder.setManifestAttribute(PluginContainer.PRIORITY_HEADER, priority);
+        }
+        builder.build(new File(folder, name + ".jar"));
+    }
+
+    private void deploy() {
+        spf = new SimplePluginFramework(folder, 60000);
+        spf.startLoading(true);
+    }
+
+    private static List<Integer> priorities(List<PluginWave> waves) {
+        List<Integer> priorities = new ArrayList<>();
+        for (PluginWave wave : waves) {
+            priorities.add(wave.getPriority());
+        }
+        return priorities;
+    }
+
+    @Test
+    public void testWavesOrderedByPriority() throws Exception {
+        archive("low", "LOW_PRIO", 0, "l");
+        archive("first", "0", 200, "f");
+        archive("medium", null, 100, "m1", "m2");
+        deploy();
+
+        List<PluginWave> waves = spf.startPluginWaves();
+        assertEquals(Arrays.asList(0, 3072, 4096), priorities(waves));
+        assertEquals(2, waves.get(1).getPlugins().size());
+        waves.get(waves.size() - 1).getCompletion().get();
+
+        // slower plugins of earlier waves finish before later waves start
+        assertEquals("start:f", EVENTS.get(0));
+        assertEquals(Arrays.asList("start:m1", "start:m2"), sorted(EVENTS.subList(1, 3)));
+        assertEquals("start:l", EVENTS.get(3));
+
+        EVENTS.clear();
+        waves = spf.stopPluginWaves();
+        assertEquals(Arrays.asList(4096, 3072, 0), priorities(waves));
+        waves.get(waves.size() - 1).getCompletion().get();
+        assertEquals("stop:l", EVENTS.get(0));
+        assertEquals(Arrays.asList("stop:m1", "stop:m2"), sorted(EVENTS.subList(1, 3)));
+        assertEquals("stop:f", EVENTS.get(3));
+    }
+
+    @Test
+    public void testSlowPluginTimesOut() throws Exception {
+        archive("slow", "HIGHEST_PRIO", 2000, "s");
+        archive("next", "LOWEST_PRIO", 0, "n");
+        deploy();
+        spf.setPluginTimeout(200);
+
+        long begin = System.currentTimeMillis();
+        List<PluginWave> waves = spf.startPluginWaves();
+        waves.get(waves.size() - 1).getCompletion().get();
+        assertTrue("Waited for slow plugin", System.currentTimeMillis() - begin < 1500);
+        assertEquals(Arrays.asList("start:n"), new ArrayList<>(EVENTS));
+
+        PluginWave slowWave = waves.get(0);
+        try {
+            slowWave.getPluginCompletion(slowWave.getPlugins().get(0)).get();
+            fail("Slow plugin completed");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+
+        // the slow plugin is not interrupted, wait for it to not disturb other tests
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!EVENTS.contains("start:s") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(Arrays.asList("start:n", "start:s"), new ArrayList<>(EVENTS));
+    }
+
+    private static List<String> sorted(List<String> events) {
+        List<String> copy = new ArrayList<>(events);
+        Collections.sort(copy);
+        return copy;
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest;
+
+import de.root1.spf.PluginContainer;
+import de.root1.spf.PluginInterface;
+import de.root1.spf.PluginRegistry;
+import de.root1.spf.SimplePluginFramework;
+import de.root1.spftest.support.PluginJarBuilder;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lookups of lazy plugins in the {@link PluginRegistry}
+ */
+public class PluginRegistryTest {
+
+    public static final AtomicInteger BROKEN_CREATED = new AtomicInteger();
+
+    private File folder;
+    private SimplePluginFramework spf;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("spf-registry").toFile();
+        new PluginJarBuilder()
+                .addClass("lazy.Base", "package lazy; public abstract class Base implements Runnable { public void run() { } }")
+                .addClass("lazy.Task", "package lazy; public class Task extends Base implements " + PluginInterface.class.getName() + " {\n"
+                        + "    public void startPlugin() { }\n"
+                        + "    public void stopPlugin() { }\n"
+                        + "    public String getPluginId() { return \"task\"; }\n"
+                        + "}\n")
+                .addService("lazy.Task")
+                .addPlugin("lazy.Other", "other")
+                .addPlugin("lazy.Broken", "broken",
+                        PluginRegistryTest.class.getName() + ".BROKEN_CREATED.incrementAndGet(); throw new IllegalStateException(\"broken\");", "", "")
+                .setManifestAttribute(PluginContainer.ID_HEADER, "lazy.Other=other, lazy.Broken=broken")
+                .build(new File(folder, "lazy.jar"));
+        BROKEN_CREATED.set(0);
+        spf = new SimplePluginFramework(folder, 60000);
+        spf.setLazyActivation(true);
+        spf.startLoading(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        spf.shutdown();
+        PluginJarGenerator.delete(folder);
+    }
+
+    @Test
+    public void testLookupByInterfaceActivates() {
+        PluginRegistry registry = spf.getPluginRegistry();
+        PluginContainer task = registry.getPluginByClassName("lazy.Task");
+        PluginContainer other = registry.getPluginByClassName("lazy.Other");
+        assertFalse(task.isActivated());
+
+        List<PluginContainer> runnables = registry.getPlugins(Runnable.class);
+        assertEquals(1, runnables.size());
+        assertSame(task, runnables.get(0));
+        assertTrue(task.isActivated());
+        assertFalse(other.isActivated());
+        assertTrue(task.getPlugin() instanceof Runnable);
+    }
+
+    @Test
+    public void testLookupByIdActivates() {
+        PluginRegistry registry = spf.getPluginRegistry();
+        PluginContainer other = registry.getPluginByClassName("lazy.Other");
+        assertFalse(other.isActivated());
+
+        assertNull(registry.getPluginById("unknown"));
+        assertNull(registry.getPluginById("task"));
+        for (PluginContainer plugin : registry.getPlugins()) {
+            assertFalse(plugin.isActivated());
+        }
+
+        assertSame(other, registry.getPluginById("other"));
+        assertTrue(other.isActivated());
+        assertFalse(registry.getPluginByClassName("lazy.Task").isActivated());
+    }
+
+    @Test
+    public void testUndeclaredIdFoundAfterActivation() {
+        PluginRegistry registry = spf.getPluginRegistry();
+        assertNull(registry.getPluginById("task"));
+        registry.getPlugins(Runnable.class);
+        assertSame(registry.getPluginByClassName("lazy.Task"), registry.getPluginById("task"));
+    }
+
+    @Test
+    public void testFailedActivationNotRetried() {
+        PluginRegistry registry = spf.getPluginRegistry();
+        assertEquals(2, registry.getPlugins(PluginInterface.class).size());
+        assertEquals(2, registry.getPlugins(PluginInterface.class).size());
+        assertNull(registry.getPluginById("broken"));
+        assertEquals(1, BROKEN_CREATED.get());
+        assertFalse(registry.getPluginByClassName("lazy.Broken").isActivated());
+    }
+
+    @Test
+    public void testPluginListIsCopy() {
+        List<PluginContainer> plugins = spf.getPluginContainerList();
+        plugins.clear();
+        assertEquals(3, spf.getPluginContainerList().size());
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest;
+
+import de.root1.spf.SimplePluginFramework;
+import de.root1.spftest.support.PluginJarBuilder;
+import de.root1.spftest.support.PluginJarGenerator;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Deploys archives whose only dependency is a class loaded by reflection,
+ * which the deploy plan can't see
+ */
+public class ReflectiveDependencyTest {
+
+    private File folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("spf-reflective").toFile();
+        // sorts first, so it is loaded before its provider
+        new PluginJarBuilder()
+                .addPlugin("refl.b.Consumer", "consumer", "Class.forName(\"refl.a.Provider\");", "", "")
+                .build(new File(folder, "a-consumer.jar"));
+    }
+
+    @After
+    public void tearDown() {
+        PluginJarGenerator.delete(folder);
+    }
+
+    @Test
+    public void testProviderInSameLevel() throws Exception {
+        new PluginJarBuilder()
+                .addPlugin("refl.a.Provider", "provider")
+                .build(new File(folder, "b-provider.jar"));
+        assertDeployed(2);
+    }
+
+    @Test
+    public void testProviderInLaterLevel() throws Exception {
+        File base = new PluginJarBuilder()
+                .addClass("refl.c.Base", "package refl.c; public class Base { public static void touch() { } }")
+                .addPlugin("refl.c.BasePlugin", "base")
+                .build(new File(folder, "b-base.jar"));
+        // references the base archive, so it is deployed after it
+        new PluginJarBuilder()
+                .addToClassPath(base)
+                .addPlugin("refl.a.Provider", "provider", "refl.c.Base.touch();", "", "")
+                .build(new File(folder, "c-provider.jar"));
+        assertDeployed(3);
+    }
+
+    private void assertDeployed(int plugins) throws Exception {
+        SimplePluginFramework spf = new SimplePluginFramework(folder, 60000);
+        spf.setDeployThreads(1);
+        spf.startLoading(true);
+        try {
+            assertEquals(plugins, spf.getPluginContainerList().size());
+            assertNotNull(spf.getPluginRegistry().getPluginById("consumer"));
+            assertNotNull(spf.getPluginRegistry().getPluginById("provider"));
+        } finally {
+            spf.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest.support;
+
+import de.root1.spf.PluginInterface;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Builds a single plugin archive from hand written sources, for tests that
+ * need plugins with specific behaviour.
+ * <p>
+ * Needs a JDK, as the classes are compiled with the system Java compiler.
+ *
+ * @author ACHR
+ */
+public class PluginJarBuilder {
+
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    private final List<String> plugins = new ArrayList<>();
+    private final Map<String, String> manifestAttributes = new LinkedHashMap<>();
+    private final List<File> classPath = new ArrayList<>();
+
+    /**
+     * Adds a class to the archive
+     *
+     * @param className fully qualified class name
+     * @param code the source code
+     * @return this builder
+     */
+    public PluginJarBuilder addClass(String className, String code) {
+        sources.put(className, code);
+        return this;
+    }
+
+    /**
+     * Adds a plugin class and its service entry to the archive
+     *
+     * @param className fully qualified class name
+     * @param pluginId the id returned by the plugin
+     * @param constructor statements executed in the constructor
+     * @param start statements executed in startPlugin()
+     * @param stop statements executed in stopPlugin()
+     * @return this builder
+     */
+    public PluginJarBuilder addPlugin(String className, String pluginId, String constructor, String start, String stop) {
+        int dot = className.lastIndexOf('.');
+        String simpleName = className.substring(dot + 1);
+        String code = (dot > 0 ? "package " + className.substring(0, dot) + ";\n" : "")
+                + "public class " + simpleName + " implements " + PluginInterface.class.getName() + " {\n"
+                + "    public " + simpleName + "() throws Exception { " + constructor + " }\n"
+                + "    public void startPlugin() { " + start + " }\n"
+                + "    public void stopPlugin() { " + stop + " }\n"
+                + "    public String getPluginId() { return \"" + pluginId + "\"; }\n"
+                + "}\n";
+        plugins.add(className);
+        return addClass(className, code);
+    }
+
+    /**
+     * Adds a plugin class that does nothing but return its id
+     *
+     * @param className fully qualified class name
+     * @param pluginId the id returned by the plugin
+     * @return this builder
+     */
+    public PluginJarBuilder addPlugin(String className, String pluginId) {
+        return addPlugin(className, pluginId, "", "", "");
+    }
+
+    /**
+     * Adds a service entry for a plugin class that is not contained in the
+     * archive
+     *
+     * @param className fully qualified class name
+     * @return this builder
+     */
+    public PluginJarBuilder addService(String className) {
+        plugins.add(className);
+        return this;
+    }
+
+    /**
+     * @param name manifest header
+     * @param value header value
+     * @return this builder
+     */
+    public PluginJarBuilder setManifestAttribute(String name, String value) {
+        manifestAttributes.put(name, value);
+        return this;
+    }
+
+    /**
+     * Makes the classes of another archive available when compiling
+     *
+     * @param archive the archive
+     * @return this builder
+     */
+    public PluginJarBuilder addToClassPath(File archive) {
+        classPath.add(archive);
+        return this;
+    }
+
+    /**
+     * Compiles the classes and writes the archive. Existing files are
+     * overwritten.
+     *
+     * @param archive the archive file
+     * @return the archive file
+     * @throws IOException if compiling or writing fails
+     */
+    public File build(File archive) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("Building plugins needs a JDK, not a JRE");
+        }
+        File work = Files.createTempDirectory("spf-builder").toFile();
+        try {
+            File classes = new File(work, "classes");
+            classes.mkdirs();
+            StringBuilder cp = new StringBuilder(System.getProperty("java.class.path"));
+            for (File file : classPath) {
+                cp.append(File.pathSeparatorChar).append(file.getAbsolutePath());
+            }
+
+            List<String> args = new ArrayList<>();
+            args.add("-nowarn");
+            args.add("-d");
+            args.add(classes.getAbsolutePath());
+            args.add("-cp");
+            args.add(cp.toString());
+            for (Map.Entry<String, String> entry : sources.entrySet()) {
+                File source = new File(work, "src/" + entry.getKey().replace('.', '/') + ".java");
+                source.getParentFile().mkdirs();
+                Files.write(source.toPath(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+                args.add(source.getAbsolutePath());
+            }
+            if (!sources.isEmpty() && compiler.run(null, null, null, args.toArray(new String[args.size()])) != 0) {
+                throw new IOException("Compiling plugin sources failed");
+            }
+
+            Manifest manifest = new Manifest();
+            Attributes attributes = manifest.getMainAttributes();
+            attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            for (Map.Entry<String, String> entry : manifestAttributes.entrySet()) {
+                attributes.putValue(entry.getKey(), entry.getValue());
+            }
+            archive.getParentFile().mkdirs();
+            try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(archive), manifest)) {
+                List<Path> classFiles;
+                try (Stream<Path> walk = Files.walk(classes.toPath())) {
+                    classFiles = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+                for (Path classFile : classFiles) {
+                    jar.putNextEntry(new JarEntry(classes.toPath().relativize(classFile).toString().replace(File.separatorChar, '/')));
+                    jar.write(Files.readAllBytes(classFile));
+                }
+                StringBuilder services = new StringBuilder();
+                for (String plugin : plugins) {
+                    services.append(plugin).append('\n');
+                }
+                jar.putNextEntry(new JarEntry("META-INF/services/" + PluginInterface.class.getName()));
+                jar.write(services.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return archive;
+        } finally {
+            PluginJarGenerator.delete(work);
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * This file is part of "Simple Plugin Framework".
+ * 
+ *  "Simple Plugin Framework" is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  "Simple Plugin Framework" is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with "Simple Plugin Framework".  
+ *  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ *  (c) 2016, Alexander Christian <info@root1.de>
+ */
+package de.root1.spftest.support;
+
+import de.root1.spf.ArchiveDependencies;
+import de.root1.spf.PluginInterface;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates plugin archives for scale tests and benchmarks.
+ * <p>
+ * Archive k (1 based) has the package <code>synth.pk</code> with the plugins
+ * <code>synth.pk.Plugink_j</code>, the helper classes
+ * <code>synth.pk.Helperk_i</code> and the resources
+ * <code>synth/pk/resource_i.txt</code> and <code>synth/shared.txt</code>.
+ * The last one is contained in every archive. With dependencies enabled,
+ * the plugins of archive k use a helper class of archive k-1, and the
+ * archives export and import their packages via manifest.
+ * <p>
+ * Needs a JDK, as the classes are compiled with the system Java compiler.
+ *
+ * @author ACHR
+ */
+public class PluginJarGenerator {
+
+    /**
+     * Name of the resource contained in every archive
+     */
+    public static final String SHARED_RESOURCE = "synth/shared.txt";
+
+    private int archiveCount = 1;
+    private int pluginsPerArchive = 1;
+    private int helperClassesPerArchive = 0;
+    private int resourcesPerArchive = 0;
+    private int resourceSize = 64;
+    private boolean dependencies = false;
+    private String fileNamePrefix = "synth";
+
+    /**
+     * @param archiveCount number of archives, defaults to 1
+     */
+    public void setArchiveCount(int archiveCount) {
+        this.archiveCount = archiveCount;
+    }
+
+    /**
+     * @param pluginsPerArchive number of plugin classes and service entries
+     * per archive, defaults to 1
+     */
+    public void setPluginsPerArchive(int pluginsPerArchive) {
+        this.pluginsPerArchive = pluginsPerArchive;
+    }
+
+    /**
+     * @param helperClassesPerArchive number of additional classes per
+     * archive, defaults to 0. Archives with dependencies get at least one.
+     */
+    public void setHelperClassesPerArchive(int helperClassesPerArchive) {
+        this.helperClassesPerArchive = helperClassesPerArchive;
+    }
+
+    /**
+     * @param resourcesPerArchive number of resource files per archive, in
+     * addition to {@link #SHARED_RESOURCE}. Defaults to 0.
+     */
+    public void setResourcesPerArchive(int resourcesPerArchive) {
+        this.resourcesPerArchive = resourcesPerArchive;
+    }
+
+    /**
+     * @param resourceSize size of each resource file in bytes, defaults to 64
+     */
+    public void setResourceSize(int resourceSize) {
+        this.resourceSize = resourceSize;
+    }
+
+    /**
+     * @param dependencies true, to let each archive depend on the previous
+     * one. Defaults to false.
+     */
+    public void setDependencies(boolean dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * @param fileNamePrefix prefix of the archive file names, defaults to
+     * "synth"
+     */
+    public void setFileNamePrefix(String fileNamePrefix) {
+        this.fileNamePrefix = fileNamePrefix;
+    }
+
+    public static String getPackageName(int archive) {
+        return "synth.p" + archive;
+    }
+
+    public static String getPluginClassName(int archive, int plugin) {
+        return getPackageName(archive) + ".Plugin" + archive + "_" + plugin;
+    }
+
+    public static String getHelperClassName(int archive, int helper) {
+        return getPackageName(archive) + ".Helper" + archive + "_" + helper;
+    }
+
+    public static String getPluginId(int archive, int plugin) {
+        return "plugin-" + archive + "-" + plugin;
+    }
+
+    /**
+     * Generates the archives. Existing archives with the same names are
+     * overwritten.
+     *
+     * @param folder target folder, created if missing
+     * @return the archives, in order
+     * @throws IOException if compiling or writing fails
+     */
+    public List<File> generate(File folder) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("Generating plugins needs a JDK, not a JRE");
+        }
+        int helpers = dependencies ? Math.max(1, helperClassesPerArchive) : helperClassesPerArchive;
+        File work = Files.createTempDirectory("spf-generator").toFile();
+        try {
+            File sources = new File(work, "src");
+            File classes = new File(work, "classes");
+            classes.mkdirs();
+
+            List<String> args = new ArrayList<>();
+            args.add("-nowarn");
+            args.add("-d");
+            args.add(classes.getAbsolutePath());
+            args.add("-cp");
+            args.add(System.getProperty("java.class.path"));
+            for (int k = 1; k <= archiveCount; k++) {
+                for (int i = 1; i <= helpers; i++) {
+                    args.add(writeSource(sources, getHelperClassName(k, i), helperSource(k, i)));
+                }
+                for (int j = 1; j <= pluginsPerArchive; j++) {
+                    args.add(writeSource(sources, getPluginClassName(k, j), pluginSource(k, j, helpers)));
+                }
+            }
+            if (compiler.run(null, null, null, args.toArray(new String[args.size()])) != 0) {
+                throw new IOException("Compiling generated plugins failed");
+            }
+
+            folder.mkdirs();
+            List<File> archives = new ArrayList<>(archiveCount);
+            for (int k = 1; k <= archiveCount; k++) {
+                File archive = new File(folder, String.format("%s%05d.jar", fileNamePrefix, k));
+                writeArchive(archive, classes, k);
+                archives.add(archive);
+            }
+            return archives;
+        } finally {
+            delete(work);
+        }
+    }
+
+    private String helperSource(int k, int i) {
+        return "package " + getPackageName(k) + ";\n"
+                + "public class Helper" + k + "_" + i + " {\n"
+                + "    public static String name() { return \"helper-" + k + "-" + i + "\"; }\n"
+                + "}\n";
+    }
+
+    private String pluginSource(int k, int j, int helpers) {
+        StringBuilder uses = new StringBuilder();
+        if (helpers > 0) {
+            uses.append(getHelperClassName(k, 1)).append(".name();");
+        }
+        if (dependencies && k > 1) {
+            uses.append(getHelperClassName(k - 1, 1)).append(".name();");
+        }
+        return "package " + getPackageName(k) + ";\n"
+                + "public class Plugin" + k + "_" + j + " implements " + PluginInterface.class.getName() + " {\n"
+                + "    public Plugin" + k + "_" + j + "() { " + uses + " }\n"
+                + "    public void startPlugin() { }\n"
+                + "    public void stopPlugin() { }\n"
+                + "    public String getPluginId() { return \"" + getPluginId(k, j) + "\"; }\n"
+                + "}\n";
+    }
+
+    private static String writeSource(File sources, String className, String code) throws IOException {
+        File source = new File(sources, className.replace('.', '/') + ".java");
+        source.getParentFile().mkdirs();
+        Files.write(source.toPath(), code.getBytes(StandardCharsets.UTF_8));
+        return source.getAbsolutePath();
+    }
+
+    private void writeArchive(File archive, File classes, int k) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (dependencies) {
+            attributes.putValue(ArchiveDependencies.EXPORT_PACKAGE_HEADER, getPackageName(k));
+            if (k > 1) {
+                attributes.putValue(ArchiveDependencies.IMPORT_PACKAGE_HEADER, getPackageName(k - 1));
+            }
+        }
+        String packagePath = getPackageName(k).replace('.', '/');
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(archive), manifest)) {
+            File[] classFiles = new File(classes, packagePath).listFiles();
+            if (classFiles != null) {
+                for (File classFile : classFiles) {
+                    jar.putNextEntry(new JarEntry(packagePath + "/" + classFile.getName()));
+                    jar.write(Files.readAllBytes(classFile.toPath()));
+                }
+            }
+            StringBuilder services = new StringBuilder();
+            for (int j = 1; j <= pluginsPerArchive; j++) {
+                services.append(getPluginClassName(k, j)).append('\n');
+            }
+            jar.putNextEntry(new JarEntry("META-INF/services/" + PluginInterface.class.getName()));
+            jar.write(services.toString().getBytes(StandardCharsets.UTF_8));
+
+            jar.putNextEntry(new JarEntry(SHARED_RESOURCE));
+            jar.write(("archive " + k + "\n").getBytes(StandardCharsets.UTF_8));
+            for (int i = 1; i <= resourcesPerArchive; i++) {
+                jar.putNextEntry(new JarEntry(packagePath + "/resource_" + i + ".txt"));
+                jar.write(resourceContent(k, i));
+            }
+        }
+    }
+
+    private byte[] resourceContent(int k, int i) {
+        byte[] content = new byte[resourceSize];
+        for (int b = 0; b < content.length; b++) {
+            content[b] = (byte) ('a' + (k + i + b) % 26);
+        }
+        return content;
+    }
+
+    /**
+     * Deletes the given file or folder with all its content
+     *
+     * @param file file or folder
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}